@@ -0,0 +1,156 @@
+package org.acme;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.config.SmallRyeConfigBuilder;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Builds an {@link SftpService} and its collaborators without starting Quarkus, so the
+ * benchmarks measure the transfer paths and not the container.
+ *
+ * <p>It lives in {@code org.acme} because the beans take their configuration through
+ * package-private injected fields.</p>
+ */
+public final class BenchmarkWiring {
+
+    private BenchmarkWiring() {
+    }
+
+    /**
+     * Creates a service that uploads from and downloads to {@code localRoot} and talks to the
+     * SFTP server on {@code 127.0.0.1:port} with the given private key.
+     *
+     * @param parallelism  number of channels used for batch uploads and downloads
+     * @param bufferSize   stream buffer size of uploads and downloads, and ring buffer size of
+     *                     server-to-server transfers
+     */
+    public static SftpService sftpService(int port, String user, Path privateKey, Path localRoot,
+                                          int parallelism, int bufferSize) {
+        TransferMetrics metrics = new TransferMetrics();
+        metrics.registry = new SimpleMeterRegistry();
+
+        SftpAutoTuner autoTuner = new SftpAutoTuner();
+        // Tuning would change the settings between iterations and between runs; keep them fixed
+        autoTuner.enabled = false;
+        autoTuner.tuningPath = localRoot.resolve("sftp-tuning.properties").toString();
+        autoTuner.maxBulkRequests = 512;
+        autoTuner.minSampleSize = 1048576;
+        autoTuner.minBufferSize = bufferSize;
+
+        SftpSessionPool pool = new SftpSessionPool();
+        pool.maxPerEndpoint = Math.max(8, parallelism * 2);
+        pool.borrowTimeout = Duration.ofSeconds(60);
+        pool.idleTimeout = Duration.ofMinutes(5);
+        pool.keepAliveInterval = Duration.ofSeconds(30);
+        pool.validateAfterIdle = Duration.ofSeconds(10);
+        pool.connectTimeout = Duration.ofSeconds(60);
+        pool.metrics = metrics;
+        pool.autoTuner = autoTuner;
+
+        SftpHostSettings hostSettings = new SftpHostSettings();
+        hostSettings.config = new SmallRyeConfigBuilder().addDefaultSources().build();
+        hostSettings.defaultParallelism = parallelism;
+        hostSettings.maxPerEndpoint = pool.maxPerEndpoint;
+        hostSettings.defaultBandwidth = 0;
+
+        BufferPool bufferPool = new BufferPool();
+        bufferPool.budget = 64L * 1024 * 1024;
+        bufferPool.minSize = 65536;
+
+        BandwidthScheduler bandwidth = new BandwidthScheduler();
+        bandwidth.hostSettings = hostSettings;
+        bandwidth.totalBytesPerSecond = 0;
+
+        SyncIndex syncIndex = new SyncIndex();
+        syncIndex.enabled = false;
+        syncIndex.indexPath = localRoot.resolve("sync-index").toString();
+
+        SegmentedDownloader segmentedDownloader = new SegmentedDownloader();
+        segmentedDownloader.sessionPool = pool;
+        segmentedDownloader.hostSettings = hostSettings;
+        segmentedDownloader.autoTuner = autoTuner;
+        segmentedDownloader.bandwidth = bandwidth;
+        segmentedDownloader.bufferPool = bufferPool;
+        segmentedDownloader.threshold = 268435456;
+        segmentedDownloader.maxSegments = 8;
+        segmentedDownloader.minSegmentSize = 33554432;
+        segmentedDownloader.targetSeconds = 20;
+
+        SentArchiver sentArchiver = new SentArchiver();
+        sentArchiver.sentPath = localRoot.resolve("Sent") + "/";
+        sentArchiver.strategy = SentArchiver.Strategy.MOVE;
+
+        RemoteMetadataCache metadataCache = new RemoteMetadataCache();
+        // Like the disabled sync index: every invocation lists and downloads the Inbox again
+        metadataCache.ttl = Duration.ZERO;
+        metadataCache.processedTtl = Duration.ZERO;
+
+        RemoteChecksumVerifier checksumVerifier = new RemoteChecksumVerifier();
+        checksumVerifier.enabled = false;
+        checksumVerifier.timeout = Duration.ofMinutes(5);
+
+        BatchPlanner planner = new BatchPlanner();
+        planner.autoTuner = autoTuner;
+        planner.largestFirst = true;
+        planner.defaultThroughput = 10485760;
+
+        SftpService service = new SftpService();
+        service.host = "127.0.0.1";
+        service.port = port;
+        service.user = user;
+        service.privateKey = privateKey.toString();
+        service.knownHosts = null;
+        service.ctsUploadPath = "/Outbox";
+        service.ctsDownloadPath = "/Inbox/";
+        service.localUploadPath = localRoot.resolve("Outbox") + "/";
+        service.localDownloadPath = localRoot.resolve("Inbox") + "/";
+        service.config = hostSettings.config;
+        service.sessionPool = pool;
+        service.hostSettings = hostSettings;
+        service.syncIndex = syncIndex;
+        service.segmentedDownloader = segmentedDownloader;
+        service.metrics = metrics;
+        service.sentArchiver = sentArchiver;
+        service.metadataCache = metadataCache;
+        service.listingQueueSize = 1024;
+        service.autoTuner = autoTuner;
+        service.checksumVerifier = checksumVerifier;
+        service.bandwidth = bandwidth;
+        service.bufferPool = bufferPool;
+        service.planner = planner;
+        service.transferMode = "stream";
+        service.relayBufferSize = bufferSize;
+        service.spillFallback = false;
+        return service;
+    }
+
+    /**
+     * Endpoint for a server-to-server transfer against a loopback benchmark server.
+     */
+    public static SftpEndpoint endpoint(int port, String user, String password) {
+        return SftpEndpoint.withPassword("127.0.0.1", port, user, password);
+    }
+
+    /**
+     * Runs {@link SftpService#transferFile(SftpEndpoint, String, SftpEndpoint, String, TransferProgress)},
+     * which is package-private.
+     */
+    public static boolean transfer(SftpService service, SftpEndpoint source, String remotePathA,
+                                   SftpEndpoint destination, String remotePathB) {
+        return service.transferFile(source, remotePathA, destination, remotePathB, new TransferProgress());
+    }
+
+    /**
+     * Waits until the files uploaded so far have been moved to the Sent folder.
+     */
+    public static void awaitArchived(SftpService service) {
+        service.sentArchiver.awaitPending();
+    }
+
+    public static void shutdown(SftpService service) {
+        service.sentArchiver.shutdown();
+        service.sessionPool.shutdown();
+    }
+}
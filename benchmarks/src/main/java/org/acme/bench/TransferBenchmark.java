@@ -0,0 +1,163 @@
+package org.acme.bench;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import org.acme.BenchmarkWiring;
+import org.acme.SftpEndpoint;
+import org.acme.SftpService;
+import org.acme.TransferSummary;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Measures the {@link SftpService} transfer paths against embedded SFTP servers on loopback.
+ *
+ * <p>Each invocation moves {@link #FILES} zip files of {@code fileSize} bytes. Server A holds the
+ * remote Inbox and Outbox used by {@code downloadAllZips()} and {@code uploadFile()}; server-to-server
+ * transfers relay a single file from server A to server B.</p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * java -jar target/benchmarks.jar -rf json -rff results/$(git rev-parse --short HEAD).json
+ * }</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+
+    static final int FILES = 8;
+
+    @Param({"1048576", "67108864"})
+    int fileSize;
+
+    /** Stream buffer of uploads and downloads, and ring buffer of server-to-server transfers. */
+    @Param({"65536", "8388608"})
+    int bufferSize;
+
+    @Param({"1", "4"})
+    int parallelism;
+
+    private Path workDir;
+    private Path local;
+    private EmbeddedSftpServer serverA;
+    private EmbeddedSftpServer serverB;
+    private SftpService service;
+    private SftpEndpoint endpointA;
+    private SftpEndpoint endpointB;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("sftp-bench-");
+        Path rootA = Files.createDirectories(workDir.resolve("serverA"));
+        Path rootB = Files.createDirectories(workDir.resolve("serverB"));
+        local = Files.createDirectories(workDir.resolve("local"));
+        Files.createDirectories(local.resolve("Outbox"));
+        Files.createDirectories(local.resolve("Inbox"));
+        Files.createDirectories(local.resolve("Sent"));
+        Files.createDirectories(rootA.resolve("Inbox"));
+        Files.createDirectories(rootA.resolve("Outbox/MX"));
+        Files.createDirectories(rootB.resolve("relay"));
+
+        Random random = new Random(42);
+        for (int i = 0; i < FILES; i++) {
+            String name = String.format("MX_%04d.zip", i);
+            writeZip(local.resolve("Outbox").resolve(name), fileSize, random);
+            Files.copy(local.resolve("Outbox").resolve(name), rootA.resolve("Inbox").resolve(name));
+        }
+        Files.copy(rootA.resolve("Inbox/MX_0000.zip"), Files.createDirectories(rootA.resolve("relay")).resolve("file.zip"));
+
+        Path privateKey = workDir.resolve("id_rsa");
+        KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 3072);
+        keyPair.writePrivateKey(privateKey.toString());
+        keyPair.dispose();
+
+        serverA = new EmbeddedSftpServer(rootA);
+        serverB = new EmbeddedSftpServer(rootB);
+        service = BenchmarkWiring.sftpService(serverA.port(), EmbeddedSftpServer.USER, privateKey, local, parallelism, bufferSize);
+        endpointA = BenchmarkWiring.endpoint(serverA.port(), EmbeddedSftpServer.USER, EmbeddedSftpServer.PASSWORD);
+        endpointB = BenchmarkWiring.endpoint(serverB.port(), EmbeddedSftpServer.USER, EmbeddedSftpServer.PASSWORD);
+    }
+
+    /**
+     * Uploads move the files from the Outbox to Sent; put them back so every upload moves the same files.
+     */
+    @Setup(Level.Invocation)
+    public void restoreOutbox() throws IOException {
+        BenchmarkWiring.awaitArchived(service);
+        try (Stream<Path> sent = Files.list(local.resolve("Sent"))) {
+            for (Path file : sent.toList()) {
+                Files.move(file, local.resolve("Outbox").resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkWiring.shutdown(service);
+        serverA.close();
+        serverB.close();
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public TransferSummary upload() {
+        return check(service.uploadFile());
+    }
+
+    @Benchmark
+    public TransferSummary download() {
+        return check(service.downloadAllZips());
+    }
+
+    @Benchmark
+    public boolean serverToServer() {
+        if (!BenchmarkWiring.transfer(service, endpointA, "/relay/file.zip", endpointB, "/relay/copy.zip")) {
+            throw new IllegalStateException("Server-to-server transfer failed");
+        }
+        return true;
+    }
+
+    private static TransferSummary check(TransferSummary summary) {
+        if (!summary.isSuccess()) {
+            throw new IllegalStateException("Transfer failed: " + summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Writes a valid zip archive of roughly {@code size} bytes with incompressible content,
+     * since downloads verify the zip structure before promoting a file.
+     */
+    private static void writeZip(Path target, int size, Random random) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(target))) {
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            zip.putNextEntry(new ZipEntry("payload.bin"));
+            OutputStream out = zip;
+            for (int written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+            zip.closeEntry();
+        }
+    }
+}
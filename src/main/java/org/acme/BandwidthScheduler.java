@@ -0,0 +1,203 @@
+package org.acme;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Shares the available bandwidth between concurrent transfers.
+ *
+ * <p>Each host can be limited to {@code sftp.bandwidth.per-host} bytes per second (overridable per
+ * host, see {@link SftpHostSettings}) and all transfers together to {@code sftp.bandwidth.total}.
+ * Every limit is a token bucket; transfer streams wrapped with {@link #throttle(InputStream, String, Priority)}
+ * or {@link #throttle(OutputStream, String, Priority)} take tokens for the bytes they move and wait
+ * when the bucket is empty.</p>
+ *
+ * <p>Waiting streams are served strictly by {@link Priority}: as long as an {@link Priority#URGENT}
+ * transfer waits for tokens, {@link Priority#NORMAL} and {@link Priority#BULK} transfers get none,
+ * so urgent files keep their latency while bulk jobs only use the capacity left over. Without
+ * configured limits nothing is throttled and priorities have no effect.</p>
+ */
+@ApplicationScoped
+public class BandwidthScheduler {
+
+    public enum Priority {
+        URGENT,
+        NORMAL,
+        BULK;
+
+        /**
+         * Parses a priority case-insensitively, e.g. from a {@code ?priority=bulk} query parameter.
+         */
+        public static Priority fromString(String value) {
+            return value == null || value.isBlank() ? NORMAL : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    @Inject
+    SftpHostSettings hostSettings;
+
+    @Inject
+    @ConfigProperty(name = "sftp.bandwidth.total", defaultValue = "0")
+    long totalBytesPerSecond;
+
+    private final Map<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+    private volatile TokenBucket totalBucket;
+
+    /**
+     * Wraps a stream that reads transferred bytes so that reading is held to the host's and the total limit.
+     */
+    public InputStream throttle(InputStream in, String host, Priority priority) {
+        TokenBucket hostBucket = hostBucket(host);
+        TokenBucket total = totalBucket();
+        if (hostBucket == null && total == null) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(hostBucket, total, 1, priority);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    acquire(hostBucket, total, n, priority);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream that writes transferred bytes so that writing is held to the host's and the total limit.
+     */
+    public OutputStream throttle(OutputStream out, String host, Priority priority) {
+        TokenBucket hostBucket = hostBucket(host);
+        TokenBucket total = totalBucket();
+        if (hostBucket == null && total == null) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(hostBucket, total, 1, priority);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                acquire(hostBucket, total, len, priority);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    private static void acquire(TokenBucket hostBucket, TokenBucket total, long bytes, Priority priority)
+            throws InterruptedIOException {
+        if (hostBucket != null) {
+            hostBucket.acquire(bytes, priority);
+        }
+        if (total != null) {
+            total.acquire(bytes, priority);
+        }
+    }
+
+    private TokenBucket hostBucket(String host) {
+        long limit = hostSettings.bandwidth(host);
+        if (limit <= 0) {
+            return null;
+        }
+        return hostBuckets.computeIfAbsent(host, h -> new TokenBucket(limit));
+    }
+
+    private TokenBucket totalBucket() {
+        if (totalBytesPerSecond <= 0) {
+            return null;
+        }
+        if (totalBucket == null) {
+            synchronized (this) {
+                if (totalBucket == null) {
+                    totalBucket = new TokenBucket(totalBytesPerSecond);
+                }
+            }
+        }
+        return totalBucket;
+    }
+
+    /**
+     * A token bucket refilled at {@code rate} tokens (bytes) per second that serves waiters by priority.
+     *
+     * <p>A request is granted as soon as the bucket is not empty and no higher priority is waiting; the
+     * bucket may go into debt for the rest of a large request, which later requests pay back by waiting.</p>
+     */
+    private static class TokenBucket {
+        private final long rate;
+        /** Tokens that can pile up while idle: a quarter of a second of traffic, enough to hide timer jitter. */
+        private final long capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final int[] waiting = new int[Priority.values().length];
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.capacity = Math.max(rate / 4, 64 * 1024);
+            this.tokens = capacity;
+        }
+
+        void acquire(long bytes, Priority priority) throws InterruptedIOException {
+            lock.lock();
+            waiting[priority.ordinal()]++;
+            try {
+                while (true) {
+                    refill();
+                    boolean higherWaiting = false;
+                    for (int i = 0; i < priority.ordinal(); i++) {
+                        higherWaiting |= waiting[i] > 0;
+                    }
+                    if (tokens > 0 && !higherWaiting) {
+                        tokens -= bytes;
+                        return;
+                    }
+                    long waitNanos = tokens > 0
+                            ? TimeUnit.MILLISECONDS.toNanos(10)
+                            : (long) ((-tokens + 1) * 1_000_000_000.0 / rate);
+                    changed.awaitNanos(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            } finally {
+                waiting[priority.ordinal()]--;
+                changed.signalAll();
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1_000_000_000.0);
+            lastRefill = now;
+        }
+    }
+}
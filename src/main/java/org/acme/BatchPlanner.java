@@ -0,0 +1,170 @@
+package org.acme;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * Plans the order of a batch transfer from the file sizes, so that the whole batch finishes as early
+ * as possible.
+ *
+ * <p>The workers of a batch each take the next file as soon as they are free. The batch is only done
+ * when the last file is, so a large file that is started last keeps one channel busy while all others
+ * sit idle. With {@code sftp.schedule.largest-first} the files are therefore handed out longest first
+ * (LPT scheduling), which leaves the short files to fill up the channels at the end and finishes
+ * within 4/3 of the optimal time. A file that would take longer than its share of the whole batch
+ * can additionally be split into segments (see {@link #segmentsToBalance}).</p>
+ *
+ * <p>The time of a file is estimated from the throughput of a single channel and the round-trip
+ * time measured by the {@link SftpAutoTuner}; until a host has been measured,
+ * {@code sftp.schedule.default-throughput} is assumed. The predicted completion time of the plan is
+ * reported next to the actual one, so the estimates can be checked.</p>
+ */
+@ApplicationScoped
+public class BatchPlanner {
+
+    /** Round trips spent per file apart from the data: open, close, stat and rename. */
+    static final int FILE_ROUND_TRIPS = 4;
+
+    @Inject
+    SftpAutoTuner autoTuner;
+
+    @Inject
+    @ConfigProperty(name = "sftp.schedule.largest-first", defaultValue = "true")
+    boolean largestFirst;
+
+    @Inject
+    @ConfigProperty(name = "sftp.schedule.default-throughput", defaultValue = "10485760")
+    long defaultThroughput;
+
+    /**
+     * A batch in the order its items should be handed to the workers.
+     *
+     * @param order            items in the order to start them
+     * @param predictedMillis  predicted time until the last item is done
+     */
+    public record Plan<T>(List<T> order, long predictedMillis) {
+    }
+
+    public boolean largestFirst() {
+        return largestFirst;
+    }
+
+    /**
+     * Estimated time to transfer {@code bytes} to or from the host over one channel.
+     */
+    public long estimateMillis(String host, long bytes) {
+        return estimateMillis(host, bytes, 1);
+    }
+
+    /**
+     * Estimated time to transfer {@code bytes} to or from the host over {@code channels} channels at once.
+     */
+    public long estimateMillis(String host, long bytes, int channels) {
+        double rate = autoTuner.bytesPerSecond(host);
+        if (rate <= 0) {
+            rate = defaultThroughput;
+        }
+        return Math.round(FILE_ROUND_TRIPS * autoTuner.rttMillis(host) + bytes * 1000.0 / (rate * Math.max(1, channels)));
+    }
+
+    /**
+     * Number of segments a file should be split into so that it takes no longer than its share of a
+     * batch of {@code totalMillis} on {@code parallelism} channels; {@code 1} if it does not stand out
+     * or largest-first scheduling is off.
+     */
+    public int segmentsToBalance(long estimateMillis, long totalMillis, int parallelism) {
+        if (!largestFirst || parallelism <= 1 || totalMillis <= 0) {
+            return 1;
+        }
+        double share = (double) totalMillis / parallelism;
+        if (estimateMillis <= share) {
+            return 1;
+        }
+        return (int) Math.min(parallelism, Math.ceil(estimateMillis / share));
+    }
+
+    /**
+     * Orders {@code items} longest first (if enabled) and predicts when the last one is done on
+     * {@code parallelism} workers that each take the next item when free.
+     */
+    public <T> Plan<T> plan(List<T> items, ToLongFunction<T> estimateMillis, int parallelism) {
+        List<T> order = new ArrayList<>(items);
+        if (largestFirst) {
+            // Stable, so files of equal size keep their listing order
+            order.sort(Comparator.comparingLong(estimateMillis).reversed());
+        }
+        Forecast forecast = new Forecast(Math.min(parallelism, order.size()));
+        for (T item : order) {
+            forecast.add(estimateMillis.applyAsLong(item));
+        }
+        return new Plan<>(order, forecast.predictedMillis());
+    }
+
+    /**
+     * Splits {@code items} into at most {@code parts} groups of about the same total time, each
+     * ordered longest first; without largest-first scheduling into consecutive groups of equal count.
+     */
+    public <T> List<List<T>> partition(List<T> items, ToLongFunction<T> estimateMillis, int parts) {
+        int count = Math.max(1, Math.min(parts, items.size()));
+        List<List<T>> groups = new ArrayList<>(count);
+        if (!largestFirst) {
+            int chunkSize = (items.size() + count - 1) / count;
+            for (int i = 0; i < items.size(); i += chunkSize) {
+                groups.add(items.subList(i, Math.min(i + chunkSize, items.size())));
+            }
+            return groups;
+        }
+        long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            groups.add(new ArrayList<>());
+        }
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(estimateMillis).reversed());
+        for (T item : sorted) {
+            // Each item goes to the group with the least work so far
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            groups.get(lightest).add(item);
+            loads[lightest] += estimateMillis.applyAsLong(item);
+        }
+        groups.removeIf(List::isEmpty);
+        return groups;
+    }
+
+    /**
+     * Predicts when the last of a stream of items is done on {@code parallelism} workers that each take
+     * the next item when free, in the order the items are added; only the workers are kept in memory.
+     */
+    public static class Forecast {
+        private final PriorityQueue<Long> workers = new PriorityQueue<>();
+        private long predicted;
+
+        public Forecast(int parallelism) {
+            for (int i = 0; i < Math.max(1, parallelism); i++) {
+                workers.add(0L);
+            }
+        }
+
+        public void add(long estimateMillis) {
+            long done = workers.poll() + estimateMillis;
+            predicted = Math.max(predicted, done);
+            workers.add(done);
+        }
+
+        public long predictedMillis() {
+            return predicted;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.acme;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Reusable transfer buffers under one memory budget shared by all concurrent transfers.
+ *
+ * <p>Buffers are handed out in power-of-two sizes and go back to the pool when released, so a steady
+ * stream of files reuses the same arrays instead of allocating a fresh buffer per file. All buffers,
+ * leased or idle, together never exceed {@code sftp.buffers.budget} bytes:</p>
+ * <ul>
+ *   <li>A request is served at its preferred size from an idle buffer, or by allocating a new one
+ *       if the budget allows, dropping idle buffers of other sizes to make room</li>
+ *   <li>Otherwise it is served with the largest smaller size that fits, down to
+ *       {@code sftp.buffers.min-size}</li>
+ *   <li>Only when not even that fits does the caller wait for another transfer to release its buffer</li>
+ * </ul>
+ *
+ * <p>A transfer holds at most one buffer at a time, so waiting cannot deadlock. Usage is reported by
+ * {@link #stats()} and the {@code sftp.buffers.*} gauges.</p>
+ *
+ * @implNote The buffers are heap arrays: JSch reads and writes {@code byte[]} and copies into its own
+ *           packet buffers, so direct buffers would only add a copy.
+ */
+@ApplicationScoped
+public class BufferPool {
+
+    @Inject
+    @ConfigProperty(name = "sftp.buffers.budget", defaultValue = "67108864")
+    long budget;
+
+    @Inject
+    @ConfigProperty(name = "sftp.buffers.min-size", defaultValue = "65536")
+    int minSize;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    /** Idle buffers by size. */
+    private final TreeMap<Integer, Deque<byte[]>> idle = new TreeMap<>();
+    /** Bytes of all buffers, leased and idle. */
+    private long allocated;
+    private long leased;
+    private long hits;
+    private long misses;
+    private long shrunk;
+    private long waits;
+
+    @PostConstruct
+    void registerGauges() {
+        Gauge.builder("sftp.buffers.budget", this, pool -> pool.budget).baseUnit("bytes").register(registry);
+        Gauge.builder("sftp.buffers.allocated", this, pool -> pool.stats().allocated()).baseUnit("bytes").register(registry);
+        Gauge.builder("sftp.buffers.leased", this, pool -> pool.stats().leased()).baseUnit("bytes").register(registry);
+        Gauge.builder("sftp.buffers.waits", this, pool -> pool.stats().waits()).register(registry);
+    }
+
+    /**
+     * Leases a buffer of {@code preferredSize} bytes, rounded down to a power of two, or a smaller one
+     * if the budget is exhausted; waits if not even {@code sftp.buffers.min-size} bytes are available.
+     */
+    public Buffer acquire(int preferredSize) throws InterruptedIOException {
+        int min = (int) Math.min(Integer.highestOneBit(Math.max(1, minSize)), Long.highestOneBit(Math.max(1, budget)));
+        int preferred = Math.max(min, Integer.highestOneBit(Math.max(1, preferredSize)));
+        lock.lock();
+        try {
+            boolean waited = false;
+            while (true) {
+                for (int size = preferred; size >= min; size /= 2) {
+                    byte[] array = take(size);
+                    if (array != null) {
+                        leased += size;
+                        if (size < preferred) {
+                            shrunk++;
+                        }
+                        return new Buffer(array);
+                    }
+                }
+                if (!waited) {
+                    waits++;
+                    waited = true;
+                }
+                released.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transfer buffer");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wraps {@code in} in a buffered stream whose buffer is leased from the pool until the stream is closed.
+     */
+    public InputStream bufferedInput(InputStream in, int preferredSize) throws InterruptedIOException {
+        return new PooledInputStream(in, acquire(preferredSize));
+    }
+
+    /**
+     * Wraps {@code out} in a buffered stream whose buffer is leased from the pool until the stream is closed.
+     */
+    public OutputStream bufferedOutput(OutputStream out, int preferredSize) throws InterruptedIOException {
+        return new PooledOutputStream(out, acquire(preferredSize));
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(budget, allocated, leased, allocated - leased, hits, misses, shrunk, waits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an idle buffer of exactly {@code size} bytes or allocates one within the budget; {@code null} if neither is possible.
+     */
+    private byte[] take(int size) {
+        Deque<byte[]> free = idle.get(size);
+        if (free != null && !free.isEmpty()) {
+            hits++;
+            return free.pop();
+        }
+        if (allocated + size > budget) {
+            long idleBytes = allocated - leased;
+            if (allocated - idleBytes + size > budget) {
+                return null;
+            }
+            // Dropping idle buffers of other sizes makes room; the largest go first
+            Iterator<Map.Entry<Integer, Deque<byte[]>>> it = idle.descendingMap().entrySet().iterator();
+            while (allocated + size > budget && it.hasNext()) {
+                Map.Entry<Integer, Deque<byte[]>> entry = it.next();
+                while (allocated + size > budget && !entry.getValue().isEmpty()) {
+                    entry.getValue().pop();
+                    allocated -= entry.getKey();
+                }
+            }
+        }
+        misses++;
+        allocated += size;
+        return new byte[size];
+    }
+
+    private void release(byte[] array) {
+        lock.lock();
+        try {
+            leased -= array.length;
+            idle.computeIfAbsent(array.length, size -> new ArrayDeque<>()).push(array);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pool usage in bytes; {@code hits}/{@code misses} count leases served from an idle buffer versus
+     * newly allocated ones, {@code shrunk} leases smaller than requested and {@code waits} leases that
+     * had to wait for the budget.
+     */
+    public record Stats(long budget, long allocated, long leased, long idle, long hits, long misses, long shrunk,
+                        long waits) {
+    }
+
+    /**
+     * A leased buffer; closing it returns the buffer to the pool.
+     */
+    public final class Buffer implements AutoCloseable {
+        private final byte[] array;
+        private boolean closed;
+
+        private Buffer(byte[] array) {
+            this.array = array;
+        }
+
+        /**
+         * The buffer, which may be smaller than requested.
+         */
+        public byte[] array() {
+            return array;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(array);
+            }
+        }
+    }
+
+    private static class PooledInputStream extends FilterInputStream {
+        private final Buffer buffer;
+        private final byte[] buf;
+        private int pos;
+        private int count;
+
+        PooledInputStream(InputStream in, Buffer buffer) {
+            super(in);
+            this.buffer = buffer;
+            this.buf = buffer.array();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= count && fill() <= 0) {
+                return -1;
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= count) {
+                // Large reads bypass the buffer, as in BufferedInputStream
+                if (len >= buf.length) {
+                    return in.read(b, off, len);
+                }
+                if (fill() <= 0) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            if (pos < count) {
+                long skipped = Math.min(n, count - pos);
+                pos += (int) skipped;
+                return skipped;
+            }
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (count - pos) + in.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                buffer.close();
+            }
+        }
+
+        private int fill() throws IOException {
+            pos = 0;
+            count = 0;
+            int n = in.read(buf, 0, buf.length);
+            if (n > 0) {
+                count = n;
+            }
+            return n;
+        }
+    }
+
+    private static class PooledOutputStream extends FilterOutputStream {
+        private final Buffer buffer;
+        private final byte[] buf;
+        private int count;
+        private boolean closed;
+
+        PooledOutputStream(OutputStream out, Buffer buffer) {
+            super(out);
+            this.buffer = buffer;
+            this.buf = buffer.array();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                flushBuffer();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buf.length) {
+                flushBuffer();
+                out.write(b, off, len);
+                return;
+            }
+            if (len > buf.length - count) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flush();
+            } finally {
+                try {
+                    out.close();
+                } finally {
+                    buffer.close();
+                }
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
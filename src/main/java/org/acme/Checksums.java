@@ -0,0 +1,22 @@
+package org.acme;
+
+/**
+ * Checksums of a transferred file, computed while its bytes streamed through the transfer.
+ *
+ * @param crc32c  hex CRC32C
+ * @param sha256  hex SHA-256
+ */
+public record Checksums(String crc32c, String sha256) {
+
+    /**
+     * Formats the checksums as a sidecar file in BSD tag format, which {@code sha256sum -c} understands:
+     * <pre>{@code
+     * CRC32C (MX_0001.zip) = 5a0e4f1c
+     * SHA256 (MX_0001.zip) = 9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08
+     * }</pre>
+     */
+    public String sidecar(String fileName) {
+        return "CRC32C (" + fileName + ") = " + crc32c + "\n"
+                + "SHA256 (" + fileName + ") = " + sha256 + "\n";
+    }
+}
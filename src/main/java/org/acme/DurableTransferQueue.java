@@ -0,0 +1,365 @@
+package org.acme;
+
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Persistent queue of single-file transfers to and from the CTS server that survives a restart.
+ *
+ * <p>Transfers are recorded in a {@link TransferJournal} under {@code sftp.queue.path} before
+ * {@link #enqueue} returns, and marked finished once they succeeded or failed for good. On startup
+ * the journal is replayed and every transfer that was queued but not finished is queued again, so a
+ * restart in the middle of a run picks up where it stopped. Journal writes of concurrent callers are
+ * committed together with one sync, so thousands of files per second can be queued.</p>
+ *
+ * <h3>Process Flow:</h3>
+ * <ol>
+ *   <li>{@link #enqueue} resolves the paths, records the transfers and hands them to the workers</li>
+ *   <li>{@code sftp.queue.workers} worker threads take transfers by {@link BandwidthScheduler.Priority}
+ *       and then in queue order, and upload or download them through {@link SftpService}</li>
+ *   <li>A failed transfer is tried again after {@code sftp.queue.retry-delay} times the number of
+ *       attempts, up to {@code sftp.queue.max-attempts} attempts; a local file that does not exist
+ *       fails at once</li>
+ * </ol>
+ *
+ * <p>Uploads go through {@link SftpService#uploadOutboxFile}, so a transfer that is run again after a
+ * restart resumes the partial file on the server and the uploaded file is moved to the Sent folder.
+ * A transfer of a file that another upload or download is moving at the same time waits for it.</p>
+ *
+ * <p>Only the configured CTS server is supported, so no credentials are ever written to the journal.</p>
+ */
+@ApplicationScoped
+public class DurableTransferQueue {
+
+    @Inject
+    SftpService sftpService;
+
+    @Inject
+    @ConfigProperty(name = "sftp.queue.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "sftp.queue.path", defaultValue = "transfer-queue/journal.log")
+    String journalPath;
+
+    @Inject
+    @ConfigProperty(name = "sftp.queue.fsync", defaultValue = "true")
+    boolean fsync;
+
+    @Inject
+    @ConfigProperty(name = "sftp.queue.workers", defaultValue = "4")
+    int workers;
+
+    @Inject
+    @ConfigProperty(name = "sftp.queue.max-attempts", defaultValue = "3")
+    int maxAttempts;
+
+    @Inject
+    @ConfigProperty(name = "sftp.queue.retry-delay", defaultValue = "30s")
+    Duration retryDelay;
+
+    @Inject
+    @ConfigProperty(name = "cts.upload.path")
+    String ctsUploadPath;
+
+    @Inject
+    @ConfigProperty(name = "cts.download.path")
+    String ctsDownloadPath;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.path")
+    String localUploadPath;
+
+    @Inject
+    @ConfigProperty(name = "local.download.path")
+    String localDownloadPath;
+
+    private final PriorityBlockingQueue<Queued> ready = new PriorityBlockingQueue<>(64,
+            Comparator.comparing((Queued queued) -> queued.entry.priority()).thenComparingLong(queued -> queued.entry.id()));
+    /** Transfers waiting for their next attempt, so they are not replayed twice. */
+    private final Map<Long, Queued> retrying = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    private volatile TransferJournal journal;
+    private volatile boolean stopping;
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private ScheduledExecutorService retryTimer;
+
+    void onStart(@Observes StartupEvent event) {
+        if (enabled) {
+            start();
+        }
+    }
+
+    synchronized void start() {
+        if (journal != null) {
+            return;
+        }
+        Path file = Paths.get(journalPath);
+        try {
+            journal = new TransferJournal(file, fsync);
+        } catch (IOException e) {
+            System.err.println("❌ Could not open transfer queue " + file + ", queued transfers are disabled: " + e.getMessage());
+            return;
+        }
+        List<TransferJournal.Entry> unfinished = journal.unfinished();
+        if (!unfinished.isEmpty()) {
+            System.out.println("Resuming " + unfinished.size() + " queued transfers from " + file + "-------------------------");
+        }
+        for (TransferJournal.Entry entry : unfinished) {
+            if (withinRoots(entry)) {
+                ready.add(new Queued(entry));
+            } else {
+                // Recorded before paths were checked, or the folders were reconfigured since
+                System.err.println("❌ Dropping queued transfer " + entry.id() + " outside the configured folders: "
+                        + entry.localPath() + " / " + entry.remotePath());
+                journal.complete(entry.id(), false);
+            }
+        }
+        retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sftp-queue-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            Thread worker = new Thread(this::work, "sftp-queue-" + i);
+            worker.setDaemon(true);
+            workerThreads.add(worker);
+            worker.start();
+        }
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (journal == null) {
+            return;
+        }
+        // Interrupted transfers are not marked finished, so they run again after the restart
+        stopping = true;
+        workerThreads.forEach(Thread::interrupt);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        for (Thread worker : workerThreads) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workerThreads.clear();
+        retryTimer.shutdownNow();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("❌ Could not close transfer queue: " + e.getMessage());
+        }
+        journal = null;
+    }
+
+    /**
+     * Adds transfers to the queue; returns once they are recorded on disk.
+     *
+     * @return the ids of the queued transfers, in the order of {@code requests}
+     * @throws IllegalArgumentException if a request has no direction or no path, or a path is absolute or
+     *                                  outside its configured folder
+     * @throws IllegalStateException    if the queue is disabled or could not be opened
+     * @throws IOException              if the journal could not be written
+     */
+    public List<Long> enqueue(List<QueuedTransferRequest> requests, BandwidthScheduler.Priority priority) throws IOException {
+        TransferJournal current = journal;
+        if (current == null) {
+            throw new IllegalStateException("The transfer queue is disabled");
+        }
+        List<TransferJournal.Entry> transfers = new ArrayList<>(requests.size());
+        for (QueuedTransferRequest request : requests) {
+            transfers.add(resolve(request, priority));
+        }
+        List<Long> ids = new ArrayList<>(transfers.size());
+        for (TransferJournal.Entry entry : current.append(transfers)) {
+            ready.add(new Queued(entry));
+            ids.add(entry.id());
+        }
+        return ids;
+    }
+
+    public Stats stats() {
+        TransferJournal current = journal;
+        return new Stats(ready.size() + retrying.size(), running.get(), succeeded.get(), failed.get(), retries.get(),
+                current == null ? null : current.stats());
+    }
+
+    /**
+     * Writes finished records that are still in memory, so few transfers repeat after a crash.
+     */
+    @Scheduled(every = "1s", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void flushJournal() {
+        TransferJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.flush();
+        } catch (IOException e) {
+            // already reported by the journal
+        }
+    }
+
+    private TransferJournal.Entry resolve(QueuedTransferRequest request, BandwidthScheduler.Priority priority) {
+        if (request.direction == null) {
+            throw new IllegalArgumentException("direction is required");
+        }
+        String localPath = blankToNull(request.localPath);
+        String remotePath = blankToNull(request.remotePath);
+        if (localPath == null && remotePath == null) {
+            throw new IllegalArgumentException("localPath or remotePath is required");
+        }
+        Path localRoot = localRoot(request.direction);
+        Path remoteRoot = remoteRoot(request.direction);
+        Path local = localPath == null ? null : under(localRoot, localPath, "localPath");
+        Path remote = remotePath == null ? null : under(remoteRoot, remotePath, "remotePath");
+        if (local == null) {
+            local = localRoot.resolve(remote.getFileName().toString());
+        }
+        if (remote == null) {
+            remote = remoteRoot.resolve(local.getFileName().toString());
+        }
+        return new TransferJournal.Entry(0, request.direction, priority, local.toString(), remote.toString());
+    }
+
+    /**
+     * Resolves {@code relative} against {@code root}; absolute paths and paths that leave {@code root}
+     * are rejected, so a request cannot read or overwrite files outside the configured folders.
+     */
+    private static Path under(Path root, String relative, String field) {
+        if (relative.startsWith("/") || relative.contains("\\") || Paths.get(relative).isAbsolute()) {
+            throw new IllegalArgumentException(field + " must be relative to its configured folder: " + relative);
+        }
+        Path resolved = root.resolve(relative).normalize();
+        if (!resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IllegalArgumentException(field + " is outside its configured folder: " + relative);
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns {@code true} if both paths of a journal entry are inside the configured folders.
+     */
+    private boolean withinRoots(TransferJournal.Entry entry) {
+        return Paths.get(entry.localPath()).normalize().startsWith(localRoot(entry.direction()))
+                && Paths.get(entry.remotePath()).normalize().startsWith(remoteRoot(entry.direction()));
+    }
+
+    private Path localRoot(TransferMetrics.Direction direction) {
+        String root = direction == TransferMetrics.Direction.UPLOAD ? localUploadPath : localDownloadPath;
+        return Paths.get(root).toAbsolutePath().normalize();
+    }
+
+    private Path remoteRoot(TransferMetrics.Direction direction) {
+        return Paths.get(direction == TransferMetrics.Direction.UPLOAD ? ctsUploadPath : ctsDownloadPath).normalize();
+    }
+
+    private void work() {
+        while (!stopping) {
+            Queued queued;
+            try {
+                queued = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            running.incrementAndGet();
+            try {
+                FileTransferResult result = transfer(queued.entry);
+                if (stopping) {
+                    // Left unfinished in the journal
+                    return;
+                }
+                finished(queued, result);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private FileTransferResult transfer(TransferJournal.Entry entry) {
+        TransferProgress progress = new TransferProgress(entry.priority());
+        SftpEndpoint endpoint = sftpService.ctsEndpoint();
+        if (entry.direction() == TransferMetrics.Direction.DOWNLOAD) {
+            return sftpService.downloadFile(endpoint, entry.remotePath(), Paths.get(entry.localPath()), progress);
+        }
+        // Like every other Outbox upload: resumed after a crash and moved to Sent once on the server
+        return sftpService.uploadOutboxFile(new File(entry.localPath()), entry.remotePath(), progress);
+    }
+
+    private void finished(Queued queued, FileTransferResult result) {
+        TransferJournal.Entry entry = queued.entry;
+        boolean missing = entry.direction() == TransferMetrics.Direction.UPLOAD && !new File(entry.localPath()).isFile();
+        queued.attempts++;
+        if (result.status() == FileTransferResult.Status.FAILED && !missing && queued.attempts < maxAttempts) {
+            retries.incrementAndGet();
+            retrying.put(entry.id(), queued);
+            long delay = retryDelay.toMillis() * queued.attempts;
+            System.out.println("Retrying " + entry.remotePath() + " in " + delay + " ms-------------------------");
+            retryTimer.schedule(() -> {
+                retrying.remove(entry.id());
+                ready.add(queued);
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        boolean success = result.status() != FileTransferResult.Status.FAILED;
+        (success ? succeeded : failed).incrementAndGet();
+        if (!success) {
+            System.err.println("❌ Queued " + entry.direction().name().toLowerCase() + " of " + entry.remotePath()
+                    + " failed after " + queued.attempts + " attempts: " + result.error());
+        }
+        journal.complete(entry.id(), success);
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    /**
+     * A transfer taken from the journal and the attempts made so far in this process.
+     */
+    private static class Queued {
+        final TransferJournal.Entry entry;
+        int attempts;
+
+        Queued(TransferJournal.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Queue state for {@code GET /sftp/queue}; {@code queued} includes transfers waiting for a retry.
+     */
+    public record Stats(long queued, int running, long succeeded, long failed, long retries,
+                        TransferJournal.Stats journal) {
+    }
+}
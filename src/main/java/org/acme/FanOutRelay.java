@@ -0,0 +1,222 @@
+package org.acme;
+
+import com.jcraft.jsch.SftpException;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Relays one file from a source server to several destination servers, reading the source only once.
+ *
+ * <p>A single {@code get} from the source feeds every destination at the same time. Each destination
+ * has its own {@link SpillingPipe}: up to {@code sftp.fanout.buffer-size} bytes are buffered in
+ * memory, and whatever a slow destination cannot take yet is spilled to a temporary file, so the
+ * source is read at the speed of the source and a slow or stalled destination never holds up the
+ * others. A destination that fails is dropped while the rest continue; the source is only aborted
+ * when no destination is left or the transfer is cancelled.</p>
+ *
+ * <h3>Process Flow:</h3>
+ * <ol>
+ *   <li>Stat the source file and start one upload thread per destination, each borrowing its own
+ *       pooled channel and writing to {@code <remotePath>.part}</li>
+ *   <li>Download the source on the calling thread into all pipes</li>
+ *   <li>Each destination renames its {@code .part} file once it has received the whole file</li>
+ * </ol>
+ */
+@ApplicationScoped
+public class FanOutRelay {
+
+    @Inject
+    SftpSessionPool sessionPool;
+
+    @Inject
+    TransferMetrics metrics;
+
+    @Inject
+    BandwidthScheduler bandwidth;
+
+    @Inject
+    @ConfigProperty(name = "sftp.fanout.buffer-size", defaultValue = "4194304")
+    int bufferSize;
+
+    /**
+     * A server and the path a fan-out writes the file to.
+     */
+    public record Target(SftpEndpoint endpoint, String remotePath) {
+    }
+
+    /**
+     * Relays the file of a {@link FanOutRequest}, using the same ports as
+     * {@link SftpService#transferFile(String, String, String, String, String, String, String, String)}.
+     */
+    public FanOutResult relay(FanOutRequest request, TransferProgress progress) {
+        List<Target> targets = new ArrayList<>();
+        for (FanOutRequest.Destination destination : request.destinations) {
+            targets.add(new Target(SftpEndpoint.withPassword(destination.host, 4022, destination.user, destination.pass),
+                    destination.remotePath));
+        }
+        return relay(SftpEndpoint.withPassword(request.serverAHost, 22, request.userA, request.passA),
+                request.remotePathA, targets, progress);
+    }
+
+    /**
+     * Relays {@code remotePath} on {@code source} to every target.
+     *
+     * @param progress  progress to report every destination's bytes to; cancelling it stops all destinations
+     */
+    public FanOutResult relay(SftpEndpoint source, String remotePath, List<Target> targets, TransferProgress progress) {
+        long start = System.currentTimeMillis();
+        long size;
+        try (PooledSftpChannel pooled = sessionPool.borrow(source)) {
+            size = pooled.channel().stat(remotePath).getSize();
+        } catch (Exception e) {
+            System.err.println("❌ Fan-out of " + remotePath + " failed: " + e.getMessage());
+            List<FanOutResult.DestinationResult> results = new ArrayList<>();
+            for (Target target : targets) {
+                results.add(new FanOutResult.DestinationResult(target.endpoint().host(), target.remotePath(),
+                        FileTransferResult.Status.FAILED, 0, 0, 0, "Source not readable: " + e.getMessage()));
+            }
+            return new FanOutResult(remotePath, 0, System.currentTimeMillis() - start, String.valueOf(e.getMessage()), results);
+        }
+        progress.addTotals(targets.size(), size * targets.size());
+
+        List<SpillingPipe> pipes = new ArrayList<>();
+        List<Thread> uploaders = new ArrayList<>();
+        FanOutResult.DestinationResult[] results = new FanOutResult.DestinationResult[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            int index = i;
+            Target target = targets.get(i);
+            SpillingPipe pipe = new SpillingPipe(bufferSize);
+            pipes.add(pipe);
+            Thread uploader = new Thread(() -> results[index] = upload(target, pipe, size, start, progress),
+                    "sftp-fanout-" + target.endpoint().host());
+            uploaders.add(uploader);
+            uploader.start();
+        }
+
+        String sourceError = null;
+        long read = 0;
+        // The download reports to its own progress so that the file is counted once per destination
+        try (TransferMetrics.Tracker tracker = metrics.track(source.host(), TransferMetrics.Direction.DOWNLOAD, new TransferProgress());
+             PooledSftpChannel pooled = sessionPool.borrow(source)) {
+            FileTransferResult result;
+            OutputStream out = bandwidth.throttle(new FanOutStream(pipes, progress), source.host(), progress.priority());
+            try {
+                pooled.channel().get(remotePath, out, new ProgressLogger(tracker, size, 0));
+                // JSch ends the download quietly when the monitor cancels it
+                progress.checkCancelled();
+                // Only a complete download ends the streams; a failed one must not look like end of file
+                out.close();
+                read = tracker.progress().snapshot().bytes();
+                result = FileTransferResult.transferred(remotePath, read, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                pooled.invalidate();
+                pipes.forEach(pipe -> pipe.fail(e));
+                sourceError = String.valueOf(e.getMessage());
+                result = FileTransferResult.failed(remotePath, System.currentTimeMillis() - start, e);
+            }
+            tracker.finish(result);
+        } catch (Exception e) {
+            pipes.forEach(pipe -> pipe.fail(e));
+            sourceError = String.valueOf(e.getMessage());
+        }
+
+        for (Thread uploader : uploaders) {
+            try {
+                uploader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        FanOutResult result = new FanOutResult(remotePath, read, System.currentTimeMillis() - start, sourceError, Arrays.asList(results));
+        if (sourceError != null) {
+            System.err.println("❌ Fan-out of " + remotePath + " failed: " + sourceError);
+        } else {
+            long delivered = result.destinations().stream()
+                    .filter(d -> d.status() == FileTransferResult.Status.TRANSFERRED).count();
+            System.out.println("✅ " + remotePath + " fanned out to " + delivered + " of " + targets.size() + " destinations.");
+        }
+        return result;
+    }
+
+    /**
+     * Uploads what arrives through {@code pipe} to one destination.
+     */
+    private FanOutResult.DestinationResult upload(Target target, SpillingPipe pipe, long size, long start,
+                                                  TransferProgress progress) {
+        String host = target.endpoint().host();
+        String partName = target.remotePath() + SftpService.PART_SUFFIX;
+        try (TransferMetrics.Tracker tracker = metrics.track(host, TransferMetrics.Direction.UPLOAD, progress)) {
+            FileTransferResult result;
+            // Opened before borrowing, so the pipe is closed and stops buffering even if no channel can be borrowed
+            try (InputStream in = bandwidth.throttle(pipe.source(), host, progress.priority());
+                 PooledSftpChannel pooled = sessionPool.borrow(target.endpoint())) {
+                try {
+                    pooled.channel().put(in, partName, new ProgressLogger(tracker, size, 0));
+                    progress.checkCancelled();
+                    SftpService.promoteRemote(pooled.channel(), partName, target.remotePath());
+                } catch (SftpException e) {
+                    pooled.invalidate();
+                    throw e;
+                }
+                result = FileTransferResult.transferred(target.remotePath(), size, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                System.err.println("❌ Fan-out to " + host + " failed: " + e.getMessage());
+                result = FileTransferResult.failed(target.remotePath(), System.currentTimeMillis() - start, e);
+            }
+            tracker.finish(result);
+            progress.fileDone();
+            return new FanOutResult.DestinationResult(host, target.remotePath(), result.status(), result.bytes(),
+                    pipe.spilledBytes(), result.durationMillis(), result.error());
+        }
+    }
+
+    /**
+     * Writes every byte to all pipes that are still open.
+     */
+    static class FanOutStream extends OutputStream {
+        private final List<SpillingPipe> pipes;
+        private final TransferProgress progress;
+
+        FanOutStream(List<SpillingPipe> pipes, TransferProgress progress) {
+            this.pipes = pipes;
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            progress.checkCancelled();
+            boolean anyOpen = false;
+            for (SpillingPipe pipe : pipes) {
+                if (pipe.isOpen()) {
+                    pipe.sink().write(b, off, len);
+                    anyOpen = true;
+                }
+            }
+            if (!anyOpen) {
+                throw new IOException("All destinations failed");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (SpillingPipe pipe : pipes) {
+                pipe.sink().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.acme;
+
+import java.util.List;
+
+public class FanOutRequest {
+    public String serverAHost;
+    public String userA;
+    public String passA;
+    public String remotePathA;
+
+    public List<Destination> destinations;
+
+    public static class Destination {
+        public String host;
+        public String user;
+        public String pass;
+        public String remotePath;
+    }
+}
@@ -0,0 +1,39 @@
+package org.acme;
+
+import java.util.List;
+
+/**
+ * Outcome of relaying one source file to several destinations with {@link FanOutRelay}.
+ *
+ * @param source          path of the file on the source server
+ * @param bytes           number of bytes read from the source
+ * @param durationMillis  wall-clock time of the whole fan-out
+ * @param error           reason the source could not be read, otherwise {@code null}
+ * @param destinations    result of every destination, in request order
+ */
+public record FanOutResult(String source, long bytes, long durationMillis, String error,
+                           List<DestinationResult> destinations) {
+
+    /**
+     * Returns {@code true} if every destination received the whole file.
+     */
+    public boolean isSuccess() {
+        return error == null && destinations.stream()
+                .allMatch(d -> d.status() == FileTransferResult.Status.TRANSFERRED);
+    }
+
+    /**
+     * Outcome of a single destination.
+     *
+     * @param host            destination server
+     * @param remotePath      path the file was written to
+     * @param status          whether the destination received the file
+     * @param bytes           number of bytes written to the destination
+     * @param spilledBytes    bytes that were buffered on local disk because the destination fell behind
+     * @param durationMillis  wall-clock time until the destination finished
+     * @param error           failure message, {@code null} unless {@code status} is {@link FileTransferResult.Status#FAILED}
+     */
+    public record DestinationResult(String host, String remotePath, FileTransferResult.Status status, long bytes,
+                                    long spilledBytes, long durationMillis, String error) {
+    }
+}
@@ -0,0 +1,89 @@
+package org.acme;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Files that are being transferred right now, so two transfers never write to the same {@code .part}.
+ *
+ * <p>Uploads and downloads append to a {@code .part} left by an earlier attempt. Two transfers of the
+ * same file at the same time, e.g. an upload run and the Outbox watcher, would both append to it, so
+ * every transfer claims its file first. A claim names the side that holds the {@code .part}: the
+ * remote path on its server for uploads, the local path for downloads.</p>
+ *
+ * <p>Batch runs use {@link #tryClaim} and skip a file that is claimed, since another transfer is
+ * already moving it. Single-file transfers use {@link #claim}, which waits for the claim to be
+ * released.</p>
+ */
+final class FileClaims {
+
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    /**
+     * Claim of an upload to {@code remotePath} on {@code endpoint}.
+     */
+    static String upload(SftpEndpoint endpoint, String remotePath) {
+        return "upload " + endpoint.host() + ":" + endpoint.port() + ":" + Paths.get(remotePath).normalize();
+    }
+
+    /**
+     * Claim of a download to {@code localFile}.
+     */
+    static String download(Path localFile) {
+        return "download " + localFile.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Takes {@code claim} if no other transfer holds it.
+     *
+     * @return {@code false} if another transfer holds the claim
+     */
+    boolean tryClaim(String claim) {
+        return claimed.add(claim);
+    }
+
+    /**
+     * Takes {@code claim}, waiting while another transfer holds it.
+     *
+     * @return {@code true} if the claim was held by another transfer when this one arrived
+     * @throws CancellationException if {@code progress} is cancelled or the thread is interrupted while waiting
+     */
+    boolean claim(String claim, TransferProgress progress) {
+        if (claimed.add(claim)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            while (!claimed.add(claim)) {
+                progress.checkCancelled();
+                // Woken by release; the timeout only bounds how late a cancellation is noticed
+                released.await(1, TimeUnit.SECONDS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for another transfer of the same file");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(String claim) {
+        claimed.remove(claim);
+        lock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
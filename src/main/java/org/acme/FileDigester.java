@@ -0,0 +1,151 @@
+package org.acme;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes the CRC32C and SHA-256 of a file while it is being transferred, so verifying a
+ * transfer never needs a second pass over the data.
+ *
+ * <p>Wrap the stream that feeds {@code put} or receives {@code get} with {@link #inputStream} or
+ * {@link #outputStream}; every byte that passes through, including bytes skipped when a transfer
+ * resumes, is added to both digests.</p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * FileDigester digester = new FileDigester();
+ * try (OutputStream out = new BufferedOutputStream(digester.outputStream(new FileOutputStream(partFile)))) {
+ *     sftp.get(remoteFile, out);
+ * }
+ * Checksums checksums = digester.checksums();
+ * }</pre>
+ */
+public class FileDigester {
+
+    /** Suffix of the sidecar file holding the checksums of a file. */
+    public static final String SIDECAR_SUFFIX = ".sum";
+
+    private final CRC32C crc32c = new CRC32C();
+    private final MessageDigest sha256;
+
+    public FileDigester() {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Starts a digester from the first {@code length} bytes of {@code file}, e.g. the part of a
+     * download that an earlier run already fetched.
+     */
+    public static FileDigester of(Path file, long length) throws IOException {
+        FileDigester digester = new FileDigester();
+        try (InputStream in = digester.inputStream(Files.newInputStream(file))) {
+            in.skipNBytes(length);
+        }
+        return digester;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        crc32c.update(b, off, len);
+        sha256.update(b, off, len);
+    }
+
+    /**
+     * Returns the checksums of all bytes seen so far.
+     */
+    public Checksums checksums() {
+        try {
+            // Cloning keeps the digester usable after the value has been read
+            MessageDigest copy = (MessageDigest) sha256.clone();
+            return new Checksums(Long.toHexString(crc32c.getValue()), HexFormat.of().formatHex(copy.digest()));
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Wraps {@code in} so that every byte read or skipped is digested.
+     */
+    public InputStream inputStream(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int n = read(single, 0, 1);
+                return n < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    update(b, off, n);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // Skipped bytes are read so that the digests always cover the whole file
+                byte[] buffer = new byte[(int) Math.min(n, 64 * 1024)];
+                long skipped = 0;
+                while (skipped < n) {
+                    int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                    if (read < 0) {
+                        break;
+                    }
+                    skipped += read;
+                }
+                return skipped;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Wraps {@code out} so that every byte written is digested.
+     */
+    public OutputStream outputStream(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Writes {@code checksums} to {@code <file>.sum} next to {@code file}, replacing an older sidecar atomically.
+     */
+    public static Path writeSidecar(Path file, Checksums checksums) throws IOException {
+        Path sidecar = file.resolveSibling(file.getFileName() + SIDECAR_SUFFIX);
+        Path temp = file.resolveSibling(file.getFileName() + SIDECAR_SUFFIX + ".tmp");
+        Files.writeString(temp, checksums.sidecar(file.getFileName().toString()), StandardCharsets.UTF_8);
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return sidecar;
+    }
+}
@@ -0,0 +1,37 @@
+package org.acme;
+
+/**
+ * Outcome of transferring a single file.
+ *
+ * @param fileName        name of the transferred file
+ * @param status          whether the file was transferred, skipped or failed
+ * @param bytes           number of bytes transferred
+ * @param durationMillis  wall-clock time spent on the file
+ * @param error           failure message, {@code null} unless {@code status} is {@link Status#FAILED}
+ * @param checksums       checksums of the whole file computed during the transfer, {@code null} if not transferred
+ */
+public record FileTransferResult(String fileName, Status status, long bytes, long durationMillis, String error,
+                                 Checksums checksums) {
+
+    public enum Status {
+        TRANSFERRED,
+        SKIPPED,
+        FAILED
+    }
+
+    public static FileTransferResult transferred(String fileName, long bytes, long durationMillis) {
+        return transferred(fileName, bytes, durationMillis, null);
+    }
+
+    public static FileTransferResult transferred(String fileName, long bytes, long durationMillis, Checksums checksums) {
+        return new FileTransferResult(fileName, Status.TRANSFERRED, bytes, durationMillis, null, checksums);
+    }
+
+    public static FileTransferResult skipped(String fileName) {
+        return new FileTransferResult(fileName, Status.SKIPPED, 0, 0, null, null);
+    }
+
+    public static FileTransferResult failed(String fileName, long durationMillis, Exception e) {
+        return new FileTransferResult(fileName, Status.FAILED, 0, durationMillis, String.valueOf(e.getMessage()), null);
+    }
+}
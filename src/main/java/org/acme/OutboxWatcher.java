@@ -0,0 +1,262 @@
+package org.acme;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Uploads zip files as soon as they land in the Outbox instead of waiting for the next
+ * {@code /sftp/upload} call.
+ *
+ * <p>The Outbox is watched with a {@link WatchService}, so no directory is rescanned while it is idle.
+ * A new or modified zip file is a candidate until its size and modification time have not changed for
+ * {@code local.upload.watch.stable-for}, so files that are still being written are never uploaded.
+ * Stable files are collected until no further file has become stable for
+ * {@code local.upload.watch.batch-window} (or {@code local.upload.watch.max-batch} files are waiting)
+ * and then uploaded together with {@link SftpService#uploadFiles}, so a burst of files shares one
+ * upload run.</p>
+ *
+ * <p>Uploads run one batch at a time on their own thread while the watcher keeps collecting the next
+ * batch. Files that fail are offered again after {@code local.upload.watch.retry-delay}. A file that
+ * another upload run is uploading at the same time is skipped and left to that run. The Outbox is
+ * scanned once at startup and whenever the watch service reports lost events.</p>
+ */
+@ApplicationScoped
+public class OutboxWatcher {
+
+    @Inject
+    SftpService sftpService;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.path")
+    String localUploadPath;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.watch.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.watch.stable-for", defaultValue = "2s")
+    Duration stableFor;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.watch.batch-window", defaultValue = "1s")
+    Duration batchWindow;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.watch.max-batch", defaultValue = "500")
+    int maxBatch;
+
+    @Inject
+    @ConfigProperty(name = "local.upload.watch.retry-delay", defaultValue = "1m")
+    Duration retryDelay;
+
+    /** Files being written, keyed by path. */
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    /** Stable files waiting for the batch to be closed. */
+    private final List<File> ready = new ArrayList<>();
+    /** Files handed to the uploader and not finished yet, so further events do not queue them twice. */
+    private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+    /** Files whose upload failed, offered again once their delay is over. */
+    private final Queue<Retry> retries = new ConcurrentLinkedQueue<>();
+    private final ExecutorService uploader = Executors.newSingleThreadExecutor(r -> new Thread(r, "outbox-uploader"));
+
+    private volatile WatchService watchService;
+    private Thread watcher;
+    private long lastReady;
+
+    void onStart(@Observes StartupEvent event) {
+        if (enabled) {
+            start();
+        }
+    }
+
+    synchronized void start() {
+        if (watcher != null) {
+            return;
+        }
+        Path outbox = Paths.get(localUploadPath);
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            outbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("❌ Could not watch " + outbox + ", uploads only run on request: " + e.getMessage());
+            return;
+        }
+        watcher = new Thread(() -> watch(outbox), "outbox-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("Watching " + outbox + " for new zip files-------------------------");
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (watcher != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            watcher.interrupt();
+            watcher = null;
+        }
+        uploader.shutdown();
+    }
+
+    private void watch(Path outbox) {
+        scan(outbox);
+        long tick = Math.max(100, Math.min(stableFor.toMillis(), batchWindow.toMillis()) / 2);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(tick, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            System.out.println("Outbox events lost, rescanning-------------------------");
+                            scan(outbox);
+                        } else {
+                            offer(outbox.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                offerDueRetries();
+                checkCandidates();
+                dispatchIfDue();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            System.err.println("❌ Outbox watcher stopped: " + e.getMessage());
+        }
+    }
+
+    private void scan(Path outbox) {
+        File[] files = outbox.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                offer(file.toPath());
+            }
+        }
+    }
+
+    private void offer(Path path) {
+        if (path.getFileName().toString().toLowerCase().endsWith(".zip") && !queued.contains(path)) {
+            candidates.putIfAbsent(path, new Candidate());
+        }
+    }
+
+    private void offerDueRetries() {
+        long now = System.currentTimeMillis();
+        for (int i = retries.size(); i > 0; i--) {
+            Retry retry = retries.poll();
+            if (retry.notBefore() <= now) {
+                offer(retry.path());
+            } else {
+                retries.add(retry);
+            }
+        }
+    }
+
+    /**
+     * Moves candidates whose size and modification time have settled to the ready list.
+     */
+    private void checkCandidates() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Candidate>> it = candidates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Candidate> entry = it.next();
+            File file = entry.getKey().toFile();
+            Candidate candidate = entry.getValue();
+            if (!file.isFile()) {
+                it.remove();
+                continue;
+            }
+            long size = file.length();
+            long mtime = file.lastModified();
+            if (size != candidate.size || mtime != candidate.mtime) {
+                candidate.size = size;
+                candidate.mtime = mtime;
+                candidate.changedAt = now;
+            } else if (now - candidate.changedAt >= stableFor.toMillis()) {
+                it.remove();
+                queued.add(entry.getKey());
+                ready.add(file);
+                lastReady = now;
+            }
+        }
+    }
+
+    /**
+     * Hands the ready files to the uploader once the burst is over or the batch is full.
+     */
+    private void dispatchIfDue() {
+        if (ready.isEmpty()) {
+            return;
+        }
+        if (ready.size() < maxBatch && System.currentTimeMillis() - lastReady < batchWindow.toMillis()) {
+            return;
+        }
+        List<File> batch = new ArrayList<>(ready);
+        ready.clear();
+        System.out.println("Queueing " + batch.size() + " new Outbox files for upload-------------------------");
+        uploader.submit(() -> upload(batch));
+    }
+
+    private void upload(List<File> batch) {
+        try {
+            TransferSummary summary = sftpService.uploadFiles(batch, new TransferProgress());
+            System.out.println("Outbox batch uploaded: " + summary.transferred() + " transferred, "
+                    + summary.failed() + " failed-------------------------");
+            long notBefore = System.currentTimeMillis() + retryDelay.toMillis();
+            for (FileTransferResult result : summary.files()) {
+                if (result.status() == FileTransferResult.Status.FAILED) {
+                    retries.add(new Retry(Paths.get(localUploadPath, result.fileName()), notBefore));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("❌ Outbox batch upload failed: " + e.getMessage());
+            long notBefore = System.currentTimeMillis() + retryDelay.toMillis();
+            batch.forEach(file -> retries.add(new Retry(file.toPath(), notBefore)));
+        } finally {
+            batch.forEach(file -> queued.remove(file.toPath()));
+        }
+    }
+
+    private record Retry(Path path, long notBefore) {
+    }
+
+    private static class Candidate {
+        long size = -1;
+        long mtime = -1;
+        long changedAt;
+    }
+}
@@ -0,0 +1,92 @@
+package org.acme;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.Session;
+
+/**
+ * An SFTP channel borrowed from the {@link SftpSessionPool}.
+ *
+ * <p>Closing the handle returns the channel to the pool instead of disconnecting it,
+ * so borrowers should always use it in a try-with-resources block. If the channel
+ * is left in an unknown state (e.g. an I/O error in the middle of a transfer) the
+ * borrower calls {@link #invalidate()} and the channel is discarded on close.</p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+ *     pooled.channel().put("/local/path/file.txt", "/remote/path/file.txt");
+ * }
+ * }</pre>
+ *
+ * <p>The working directory of a pooled channel is whatever the previous borrower
+ * left behind, so borrowers must use absolute paths or {@code cd} first.</p>
+ */
+public class PooledSftpChannel implements AutoCloseable {
+
+    private final SftpSessionPool pool;
+    private final SftpEndpoint endpoint;
+    private final Session session;
+    private final ChannelSftp channel;
+
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean invalid;
+    private boolean returned;
+
+    PooledSftpChannel(SftpSessionPool pool, SftpEndpoint endpoint, Session session, ChannelSftp channel) {
+        this.pool = pool;
+        this.endpoint = endpoint;
+        this.session = session;
+        this.channel = channel;
+    }
+
+    public ChannelSftp channel() {
+        return channel;
+    }
+
+    public Session session() {
+        return session;
+    }
+
+    public SftpEndpoint endpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Marks the channel as broken so it is disconnected instead of being reused.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    boolean isInvalid() {
+        return invalid;
+    }
+
+    boolean isConnected() {
+        return session.isConnected() && channel.isConnected() && !channel.isClosed();
+    }
+
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+        returned = false;
+    }
+
+    void disconnect() {
+        channel.disconnect();
+        session.disconnect();
+    }
+
+    @Override
+    public void close() {
+        if (returned) {
+            return;
+        }
+        returned = true;
+        lastUsed = System.currentTimeMillis();
+        pool.release(this);
+    }
+}
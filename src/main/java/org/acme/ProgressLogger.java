@@ -0,0 +1,73 @@
+package org.acme;
+
+import com.jcraft.jsch.SftpProgressMonitor;
+
+/**
+ * Logs the progress of a single SFTP transfer roughly every megabyte and reports the
+ * transferred bytes to the file's {@link TransferMetrics.Tracker}, which adds them to the
+ * metrics and to the overall {@link TransferProgress}.
+ *
+ * <p>For resumed transfers {@code offset} is the number of bytes already present on the
+ * target, so the logged percentage reflects the whole file. A resumed {@code get} reports that
+ * offset once more through {@link #count(long)} before the first byte arrives; use
+ * {@link #resumedDownload} there so the skipped bytes are not counted twice. Returning {@code false} from
+ * {@link #count(long)} once the progress is cancelled makes JSch abort the transfer.</p>
+ */
+public class ProgressLogger implements SftpProgressMonitor {
+
+    private final TransferMetrics.Tracker tracker;
+    private final String direction;
+    private final long fileSize;
+    private long transferred;
+    /** Bytes JSch still reports through {@link #count(long)} that were skipped, not transferred. */
+    private long skipped;
+
+    public ProgressLogger(TransferMetrics.Tracker tracker, long fileSize, long offset) {
+        this.tracker = tracker;
+        this.direction = tracker.direction().name().toLowerCase();
+        this.fileSize = fileSize;
+        this.transferred = offset;
+    }
+
+    /**
+     * Progress of a {@code get} in {@code RESUME} mode starting at {@code offset}; ignores the
+     * {@code count(offset)} JSch makes for the skipped prefix.
+     */
+    public static ProgressLogger resumedDownload(TransferMetrics.Tracker tracker, long fileSize, long offset) {
+        ProgressLogger logger = new ProgressLogger(tracker, fileSize, offset);
+        logger.skipped = offset;
+        return logger;
+    }
+
+    @Override
+    public void init(int op, String src, String dest, long max) {
+        if (transferred > 0) {
+            System.out.printf("Resuming %s: %s at %d of %d bytes%n", direction, src, transferred, fileSize);
+        } else {
+            System.out.printf("Started %s: %s (%d bytes)%n", direction, src, fileSize);
+        }
+    }
+
+    @Override
+    public boolean count(long bytes) {
+        if (skipped > 0) {
+            long ignored = Math.min(skipped, bytes);
+            skipped -= ignored;
+            bytes -= ignored;
+            if (bytes == 0) {
+                return !tracker.progress().isCancelled();
+            }
+        }
+        transferred += bytes;
+        tracker.addBytes(bytes);
+        if (fileSize > 0 && transferred % (1024 * 1024) < bytes) { // log every ~1 MB
+            System.out.printf("Progress: %.2f%%%n", (transferred * 100.0) / fileSize);
+        }
+        return !tracker.progress().isCancelled();
+    }
+
+    @Override
+    public void end() {
+        System.out.println(direction + " complete:----------------- " + transferred + " bytes");
+    }
+}
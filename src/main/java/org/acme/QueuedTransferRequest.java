@@ -0,0 +1,16 @@
+package org.acme;
+
+/**
+ * One file to add to the {@link DurableTransferQueue} via {@code POST /sftp/queue}.
+ *
+ * <p>Paths are relative to the configured folders: for uploads {@code localPath} to
+ * {@code local.upload.path} and {@code remotePath} to {@code cts.upload.path}, for downloads to
+ * {@code local.download.path} and {@code cts.download.path}. Absolute paths and paths that leave
+ * these folders, e.g. through {@code ..}, are rejected. If only one of the paths is given, the other
+ * one is the same file name in its configured folder.</p>
+ */
+public class QueuedTransferRequest {
+    public TransferMetrics.Direction direction;
+    public String localPath;
+    public String remotePath;
+}
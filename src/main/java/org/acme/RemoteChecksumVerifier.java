@@ -0,0 +1,114 @@
+package org.acme;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Compares the SHA-256 computed during a transfer with the server's own checksum of the remote file.
+ *
+ * <p>SFTP has no portable checksum request and JSch does not implement the {@code check-file}
+ * extension, so the server is asked to run {@code sha256sum} on an exec channel of the same session.
+ * Servers that only allow SFTP refuse the command; such hosts are remembered and not asked again,
+ * and their transfers rely on the size and zip structure checks alone.</p>
+ *
+ * <p>Enabled with {@code sftp.checksum.remote-verify}. Hashing happens on the server and only the
+ * digest crosses the network, so no data is transferred twice.</p>
+ */
+@ApplicationScoped
+public class RemoteChecksumVerifier {
+
+    @Inject
+    @ConfigProperty(name = "sftp.checksum.remote-verify", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "sftp.checksum.remote-timeout", defaultValue = "5m")
+    Duration timeout;
+
+    private final Set<String> unsupportedHosts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Checks the remote file against {@code checksums}.
+     *
+     * @param session     session to the server holding the file
+     * @param remotePath  absolute path of the remote file
+     * @throws IOException if the server reports a different SHA-256
+     */
+    public void verify(Session session, String remotePath, Checksums checksums) throws IOException {
+        String host = session.getHost();
+        if (!enabled || unsupportedHosts.contains(host)) {
+            return;
+        }
+        String remote = remoteSha256(session, remotePath);
+        if (remote == null) {
+            System.out.println("Server " + host + " cannot compute checksums, skipping remote verification-------------------------");
+            unsupportedHosts.add(host);
+            return;
+        }
+        if (!remote.equalsIgnoreCase(checksums.sha256())) {
+            throw new IOException("SHA-256 of remote " + remotePath + " is " + remote + ", expected " + checksums.sha256());
+        }
+        System.out.println("Remote checksum of " + remotePath + " verified-------------------------");
+    }
+
+    /**
+     * Returns the hex SHA-256 the server computes for the file, or {@code null} if it cannot run the command.
+     */
+    private String remoteSha256(Session session, String remotePath) throws IOException {
+        ChannelExec exec = null;
+        try {
+            exec = (ChannelExec) session.openChannel("exec");
+            exec.setCommand("sha256sum -- " + quote(remotePath));
+            InputStream out = exec.getInputStream();
+            exec.connect((int) Math.min(Integer.MAX_VALUE, timeout.toMillis()));
+
+            long deadline = System.currentTimeMillis() + timeout.toMillis();
+            StringBuilder output = new StringBuilder();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = out.read(buffer)) >= 0) {
+                output.append(new String(buffer, 0, n, StandardCharsets.US_ASCII));
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out waiting for the checksum of " + remotePath);
+                }
+            }
+            while (!exec.isClosed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            String line = output.toString().trim();
+            if (exec.getExitStatus() != 0 || !line.matches("(?s)[0-9a-fA-F]{64}\\s.*")) {
+                return null;
+            }
+            return line.substring(0, 64);
+        } catch (JSchException e) {
+            // exec channels refused, e.g. an SFTP-only account
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the checksum of " + remotePath, e);
+        } finally {
+            if (exec != null) {
+                exec.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Quotes a path for a POSIX shell.
+     */
+    private static String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,163 @@
+package org.acme;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Remembers what is known about remote directories so that repeated transfers do not pay the
+ * same {@code stat}, {@code mkdir} and {@code ls} round trips every time.
+ *
+ * <p>Entries are kept per {@link SftpEndpoint} and expire after {@code sftp.metadata.ttl}, processed
+ * directories after {@code sftp.metadata.processed-ttl}.</p>
+ * <ul>
+ *   <li>Directories that exist, or were created by {@link #ensureDirectory}, are not checked again
+ *       until their entry expires</li>
+ *   <li>A directory whose entries were all handled is not listed again while its modification time
+ *       is unchanged, which costs one {@code stat} instead of transferring the whole listing</li>
+ * </ul>
+ *
+ * <p>Callers that change a directory through other means, or see a cached directory disappear,
+ * call {@link #invalidate(SftpEndpoint, String)}.</p>
+ */
+@ApplicationScoped
+public class RemoteMetadataCache {
+
+    @Inject
+    @ConfigProperty(name = "sftp.metadata.ttl", defaultValue = "30s")
+    Duration ttl;
+
+    /** Longer than {@code sftp.inbox.poll.max-interval}, so idle polls of the Inbox only {@code stat} it. */
+    @Inject
+    @ConfigProperty(name = "sftp.metadata.processed-ttl", defaultValue = "15m")
+    Duration processedTtl;
+
+    private final Map<SftpEndpoint, HostCache> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Makes sure {@code directory} exists on the server, creating it and any missing parents.
+     *
+     * @throws SftpException if the directory cannot be created or a file with that name is in the way
+     */
+    public void ensureDirectory(SftpEndpoint endpoint, ChannelSftp sftp, String directory) throws SftpException {
+        String dir = normalize(directory);
+        HostCache cache = host(endpoint);
+        if (isFresh(cache.directories.get(dir))) {
+            return;
+        }
+
+        StringBuilder path = new StringBuilder(dir.startsWith("/") ? "/" : "");
+        for (String part : dir.split("/")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            path.append(part);
+            String current = path.toString();
+            if (!isFresh(cache.directories.get(current))) {
+                createIfMissing(sftp, current);
+                cache.directories.put(current, System.currentTimeMillis());
+            }
+            path.append('/');
+        }
+    }
+
+    /**
+     * Returns the modification time of {@code directory} in seconds, straight from the server.
+     */
+    public long modified(SftpEndpoint endpoint, ChannelSftp sftp, String directory) throws SftpException {
+        SftpATTRS attrs = sftp.stat(normalize(directory));
+        host(endpoint).directories.put(normalize(directory), System.currentTimeMillis());
+        return attrs.getMTime();
+    }
+
+    /**
+     * Returns {@code true} if every entry of {@code directory} was handled by a run that started
+     * while the directory had modification time {@code mtime}, and that run is recent enough to trust.
+     *
+     * <p>Modification times have a resolution of one second and do not change when an existing file
+     * is rewritten in place, so a run is never trusted for longer than {@code sftp.metadata.processed-ttl}.</p>
+     */
+    public boolean isProcessed(SftpEndpoint endpoint, String directory, long mtime) {
+        Processed processed = host(endpoint).processed.get(normalize(directory));
+        return processed != null && processed.mtime == mtime
+                && System.currentTimeMillis() - processed.at < processedTtl.toMillis();
+    }
+
+    /**
+     * Records that every entry of {@code directory} was handled while it had modification time {@code mtime}.
+     */
+    public void markProcessed(SftpEndpoint endpoint, String directory, long mtime) {
+        host(endpoint).processed.put(normalize(directory), new Processed(mtime, System.currentTimeMillis()));
+    }
+
+    /**
+     * Forgets everything cached about {@code directory}.
+     */
+    public void invalidate(SftpEndpoint endpoint, String directory) {
+        HostCache cache = hosts.get(endpoint);
+        if (cache != null) {
+            String dir = normalize(directory);
+            cache.directories.remove(dir);
+            cache.processed.remove(dir);
+        }
+    }
+
+    /**
+     * Forgets everything cached about the endpoint.
+     */
+    public void invalidateAll(SftpEndpoint endpoint) {
+        hosts.remove(endpoint);
+    }
+
+    private static void createIfMissing(ChannelSftp sftp, String dir) throws SftpException {
+        try {
+            SftpATTRS attrs = sftp.stat(dir);
+            if (!attrs.isDir()) {
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, dir + " exists but is not a directory");
+            }
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw e;
+            }
+            try {
+                sftp.mkdir(dir);
+                System.out.println("Created remote directory " + dir + "-------------------------");
+            } catch (SftpException mkdirFailure) {
+                // Another worker may have created it in the meantime
+                if (!sftp.stat(dir).isDir()) {
+                    throw mkdirFailure;
+                }
+            }
+        }
+    }
+
+    private boolean isFresh(Long cachedAt) {
+        return cachedAt != null && System.currentTimeMillis() - cachedAt < ttl.toMillis();
+    }
+
+    private HostCache host(SftpEndpoint endpoint) {
+        return hosts.computeIfAbsent(endpoint, e -> new HostCache());
+    }
+
+    private static String normalize(String directory) {
+        return directory.length() > 1 && directory.endsWith("/") ? directory.substring(0, directory.length() - 1) : directory;
+    }
+
+    private record Processed(long mtime, long at) {
+    }
+
+    private static class HostCache {
+        /** Directories known to exist, with the time they were last confirmed. */
+        final Map<String, Long> directories = new ConcurrentHashMap<>();
+        /** Directories whose entries were all handled, keyed by directory. */
+        final Map<String, Processed> processed = new ConcurrentHashMap<>();
+    }
+}
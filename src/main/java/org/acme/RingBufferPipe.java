@@ -0,0 +1,200 @@
+package org.acme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded in-memory ring buffer connecting a writer thread to a reader thread.
+ *
+ * <p>The writer blocks while the buffer is full and the reader blocks while it is empty,
+ * so the faster side is throttled to the speed of the slower one (backpressure) and memory
+ * use never exceeds the buffer capacity. Closing the {@link #sink()} signals end of stream
+ * to the reader. Either side can abort the relay with {@link #fail(Throwable)}, which wakes
+ * the other side up with an {@link IOException}.</p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * RingBufferPipe pipe = new RingBufferPipe(8 * 1024 * 1024);
+ * // writer thread
+ * try (OutputStream out = pipe.sink()) { source.transferTo(out); } catch (IOException e) { pipe.fail(e); }
+ * // reader thread
+ * destination.write(pipe.source().readAllBytes());
+ * }</pre>
+ */
+public class RingBufferPipe {
+
+    private final byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int readPos;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private Throwable failure;
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            RingBufferPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeWriter();
+        }
+    };
+
+    private final InputStream source = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return RingBufferPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            closeReader();
+        }
+    };
+
+    public RingBufferPipe(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * The writing end of the pipe; closing it signals end of stream to the reader.
+     */
+    public OutputStream sink() {
+        return sink;
+    }
+
+    /**
+     * The reading end of the pipe.
+     */
+    public InputStream source() {
+        return source;
+    }
+
+    /**
+     * Aborts the relay; pending and future reads and writes fail with {@code cause}.
+     */
+    public void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            lock.lock();
+            try {
+                while (count == buffer.length && !readerClosed && failure == null) {
+                    notFull.await();
+                }
+                checkFailure();
+                if (readerClosed) {
+                    throw new IOException("Relay reader closed before the stream ended");
+                }
+                int writePos = (readPos + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                System.arraycopy(b, off, buffer, writePos, n);
+                count += n;
+                off += n;
+                len -= n;
+                notEmpty.signal();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing to relay buffer");
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (count == 0 && !writerClosed && failure == null) {
+                notEmpty.await();
+            }
+            checkFailure();
+            if (count == 0) {
+                return -1;
+            }
+            int n = Math.min(len, Math.min(count, buffer.length - readPos));
+            System.arraycopy(buffer, readPos, b, off, n);
+            readPos = (readPos + n) % buffer.length;
+            count -= n;
+            notFull.signal();
+            return n;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading from relay buffer");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Relay aborted: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void closeWriter() {
+        lock.lock();
+        try {
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeReader() {
+        lock.lock();
+        try {
+            readerClosed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
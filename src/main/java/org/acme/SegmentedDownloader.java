@@ -0,0 +1,240 @@
+package org.acme;
+
+import com.jcraft.jsch.ChannelSftp;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Downloads a single large file as several byte ranges fetched over separate pooled channels at once,
+ * so one file is no longer limited to the window of a single SFTP stream.
+ *
+ * <p>The local file is preallocated to its full size and every segment is written at its own offset
+ * with positional {@link FileChannel} writes. The number of segments adapts to the file size and to
+ * the per-channel throughput measured on earlier segments from the same host: a segment should take
+ * about {@code sftp.segmented.target-seconds} to download, be at least
+ * {@code sftp.segmented.min-segment-size} bytes, and there are never more than
+ * {@code sftp.segmented.max-segments} segments or more than the host's parallelism in flight.
+ * A host with a parallelism of one gets no segments at all: they would be fetched one after the
+ * other, and unlike a {@code .part} download a segmented one cannot be resumed.</p>
+ *
+ * <p>Only the first segment waits for a pooled channel. Further segments run only on channels that
+ * are free at that moment, and otherwise the channels already running take them over, so a download
+ * never waits for channels held by other transfers. The caller must not hold a channel of the same
+ * endpoint while downloading.</p>
+ */
+@ApplicationScoped
+public class SegmentedDownloader {
+
+    @Inject
+    SftpSessionPool sessionPool;
+
+    @Inject
+    SftpHostSettings hostSettings;
+
+    @Inject
+    SftpAutoTuner autoTuner;
+
+    @Inject
+    BandwidthScheduler bandwidth;
+
+    @Inject
+    BufferPool bufferPool;
+
+    @Inject
+    @ConfigProperty(name = "sftp.segmented.threshold", defaultValue = "268435456")
+    long threshold;
+
+    @Inject
+    @ConfigProperty(name = "sftp.segmented.max-segments", defaultValue = "8")
+    int maxSegments;
+
+    @Inject
+    @ConfigProperty(name = "sftp.segmented.min-segment-size", defaultValue = "33554432")
+    long minSegmentSize;
+
+    @Inject
+    @ConfigProperty(name = "sftp.segmented.target-seconds", defaultValue = "20")
+    int targetSeconds;
+
+    /** Smoothed bytes per second of a single channel, per host. */
+    private final Map<String, Double> channelRates = new ConcurrentHashMap<>();
+
+    /**
+     * Returns {@code true} if a file of this size should be downloaded from the host in segments.
+     */
+    public boolean appliesTo(String host, long size) {
+        return threshold > 0 && size >= threshold && hostSettings.parallelism(host) > 1;
+    }
+
+    /**
+     * Number of segments to download a file of this size in: one below {@code sftp.segmented.threshold}
+     * or for a host with a parallelism of one, otherwise as many as the size and the measured throughput call for. {@code atLeast} raises the
+     * count for a file that would hold up a batch, as far as segments of at least
+     * {@code sftp.segmented.min-segment-size} bytes allow.
+     */
+    public int segments(String host, long size, int atLeast) {
+        if (hostSettings.parallelism(host) <= 1) {
+            return 1;
+        }
+        int segments = appliesTo(host, size) ? segmentCount(host, size) : 1;
+        long possible = Math.max(1, size / Math.max(1, minSegmentSize));
+        return (int) Math.max(segments, Math.min(Math.min(atLeast, maxSegments), possible));
+    }
+
+    /**
+     * Downloads {@code remotePath} into {@code localPath} in parallel segments.
+     *
+     * <p>On failure the partially written local file is deleted.</p>
+     *
+     * @param endpoint    server to download from
+     * @param remotePath  absolute path of the remote file
+     * @param size        size of the remote file in bytes
+     * @param localPath   local file to create or overwrite
+     * @param tracker     tracker to report the downloaded bytes to; cancelling its progress aborts all segments
+     * @throws IOException if any segment fails
+     */
+    public void download(SftpEndpoint endpoint, String remotePath, long size, Path localPath,
+                         TransferMetrics.Tracker tracker) throws IOException {
+        download(endpoint, remotePath, size, localPath, tracker, segmentCount(endpoint.host(), size));
+    }
+
+    /**
+     * Same as {@link #download(SftpEndpoint, String, long, Path, TransferMetrics.Tracker)} with a given
+     * number of segments, e.g. from {@link #segments(String, long, int)}.
+     */
+    public void download(SftpEndpoint endpoint, String remotePath, long size, Path localPath,
+                         TransferMetrics.Tracker tracker, int segments) throws IOException {
+        segments = (int) Math.max(1, Math.min(segments, size));
+        long segmentSize = (size + segments - 1) / segments;
+        System.out.println("Downloading " + remotePath + " in " + segments + " segments of " + segmentSize + " bytes-------------------------");
+
+        try (RandomAccessFile raf = new RandomAccessFile(localPath.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+
+        Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+        for (long offset = 0; offset < size; offset += segmentSize) {
+            ranges.add(new long[]{offset, Math.min(segmentSize, size - offset)});
+        }
+
+        try (FileChannel file = FileChannel.open(localPath, StandardOpenOption.WRITE)) {
+            int parallelism = Math.min(ranges.size(), hostSettings.parallelism(endpoint.host()));
+            List<Integer> fetchers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                fetchers.add(i);
+            }
+            List<String> errors = TransferExecutor.runAll("sftp-segment", parallelism, fetchers,
+                    fetcher -> downloadRanges(endpoint, remotePath, ranges, fetcher == 0, file, tracker));
+            for (String error : errors) {
+                if (error != null) {
+                    throw new IOException("Segmented download of " + remotePath + " failed: " + error);
+                }
+            }
+            file.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(localPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes byte ranges from {@code ranges} until none are left, all over one pooled channel; returns an
+     * error message or {@code null}. Only the {@code first} fetcher waits for a channel, the others give
+     * up at once if none is free.
+     */
+    private String downloadRanges(SftpEndpoint endpoint, String remotePath, Queue<long[]> ranges, boolean first,
+                                  FileChannel file, TransferMetrics.Tracker tracker) {
+        final int BUFFER_SIZE = autoTuner.bufferSize(endpoint.host());
+        try (PooledSftpChannel pooled = first ? sessionPool.borrow(endpoint) : sessionPool.tryBorrow(endpoint)) {
+            if (pooled == null) {
+                return null;
+            }
+            try (BufferPool.Buffer lease = bufferPool.acquire(BUFFER_SIZE)) {
+                long[] range;
+                while ((range = ranges.poll()) != null) {
+                    String error = downloadSegment(pooled, remotePath, range[0], range[1], file, lease.array(), tracker);
+                    if (error != null) {
+                        // The download fails anyway; the other fetchers stop as well
+                        ranges.clear();
+                        return error;
+                    }
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            ranges.clear();
+            System.err.println("❌ No channel for the segments of " + remotePath + ": " + e.getMessage());
+            return String.valueOf(e.getMessage());
+        }
+    }
+
+    /**
+     * Downloads one byte range and writes it at its offset; returns an error message or {@code null}.
+     */
+    private String downloadSegment(PooledSftpChannel pooled, String remotePath, long offset, long length, FileChannel file,
+                                   byte[] buffer, TransferMetrics.Tracker tracker) {
+        String host = pooled.endpoint().host();
+        long start = System.nanoTime();
+        try {
+            ChannelSftp sftp = pooled.channel();
+            long position = offset;
+            long remaining = length;
+            try (InputStream in = bandwidth.throttle(sftp.get(remotePath, null, offset), host,
+                    tracker.progress().priority())) {
+                while (remaining > 0) {
+                    tracker.progress().checkCancelled();
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of file at " + position);
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                    while (chunk.hasRemaining()) {
+                        position += file.write(chunk, position);
+                    }
+                    remaining -= n;
+                    tracker.addBytes(n);
+                }
+            } catch (Exception e) {
+                pooled.invalidate();
+                throw e;
+            }
+            recordRate(host, length, System.nanoTime() - start);
+            return null;
+        } catch (Exception e) {
+            System.err.println("❌ Segment at " + offset + " of " + remotePath + " failed: " + e.getMessage());
+            return String.valueOf(e.getMessage());
+        }
+    }
+
+    private int segmentCount(String host, long size) {
+        Double rate = channelRates.get(host);
+        long targetSegment = rate == null ? minSegmentSize : Math.max(minSegmentSize, (long) (rate * targetSeconds));
+        long segments = (size + targetSegment - 1) / targetSegment;
+        return (int) Math.max(1, Math.min(segments, maxSegments));
+    }
+
+    private void recordRate(String host, long bytes, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        double rate = bytes * 1_000_000_000.0 / nanos;
+        channelRates.merge(host, rate, (old, sample) -> old * 0.7 + sample * 0.3);
+    }
+}
@@ -0,0 +1,154 @@
+package org.acme;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Moves uploaded files out of the Outbox into {@code local.sent.path} without slowing down the uploads.
+ *
+ * <p>Archiving runs on a single background thread, so the upload workers go straight on to their
+ * next file. How a file gets into the Sent folder is chosen with {@code local.sent.strategy}:</p>
+ * <ul>
+ *   <li>{@code move}: atomic rename; no data is copied when Outbox and Sent share a filesystem</li>
+ *   <li>{@code hardlink}: link the file into Sent, then unlink it from the Outbox</li>
+ *   <li>{@code reflink}: copy-on-write clone with {@code cp --reflink=always} (btrfs, XFS), then
+ *       delete the original</li>
+ *   <li>{@code copy}: copy the bytes, then delete the original</li>
+ * </ul>
+ *
+ * <p>If the chosen strategy is not possible, e.g. because Sent is on another filesystem, the file
+ * is copied instead. The file always appears in Sent under its final name in one atomic step.</p>
+ */
+@ApplicationScoped
+public class SentArchiver {
+
+    public enum Strategy {
+        MOVE,
+        HARDLINK,
+        REFLINK,
+        COPY
+    }
+
+    @Inject
+    @ConfigProperty(name = "local.sent.path")
+    String sentPath;
+
+    @Inject
+    @ConfigProperty(name = "local.sent.strategy", defaultValue = "move")
+    Strategy strategy;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "sent-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queues {@code source} to be archived into the Sent folder as {@code fileName}.
+     *
+     * @param checksums  if not {@code null}, written to a {@code .sum} sidecar next to the archived file
+     * @return completes once the file is in Sent and gone from its original location;
+     *         failures are logged and leave the original in place
+     */
+    public CompletableFuture<Void> archive(Path source, String fileName, Checksums checksums) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Path destination = Paths.get(sentPath, fileName);
+                archiveNow(source, destination);
+                if (checksums != null) {
+                    FileDigester.writeSidecar(destination, checksums);
+                }
+            } catch (IOException e) {
+                System.err.println("❌ Could not archive " + source + " to Sent: " + e.getMessage());
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits until every file queued so far has been archived.
+     */
+    public void awaitPending() {
+        CompletableFuture.runAsync(() -> { }, executor).join();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Let queued files reach Sent; anything left behind is still in the Outbox and skipped by the sync index
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void archiveNow(Path source, Path destination) throws IOException {
+        Files.createDirectories(destination.getParent());
+        if (strategy == Strategy.MOVE) {
+            try {
+                Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                System.out.println("Moved " + source.getFileName() + " to Sent-------------------------");
+                return;
+            } catch (IOException e) {
+                System.out.println("Move to Sent not possible (" + e.getMessage() + "), copying instead-------------------------");
+            }
+        }
+
+        Path staged = destination.resolveSibling(destination.getFileName() + ".archiving");
+        Files.deleteIfExists(staged);
+        Strategy used = strategy == Strategy.MOVE ? Strategy.COPY : strategy;
+        try {
+            stage(used, source, staged);
+        } catch (IOException e) {
+            System.out.println(used.name().toLowerCase() + " to Sent not possible (" + e.getMessage() + "), copying instead-------------------------");
+            Files.deleteIfExists(staged);
+            used = Strategy.COPY;
+            stage(used, source, staged);
+        }
+        Files.move(staged, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(source);
+        System.out.println("Archived " + source.getFileName() + " to Sent by " + used.name().toLowerCase() + "-------------------------");
+    }
+
+    /**
+     * Creates {@code target} with the content of {@code source} using the given strategy.
+     */
+    private static void stage(Strategy strategy, Path source, Path target) throws IOException {
+        switch (strategy) {
+            case HARDLINK -> Files.createLink(target, source);
+            case REFLINK -> reflink(source, target);
+            default -> Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private static void reflink(Path source, Path target) throws IOException {
+        Process process = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString())
+                .redirectErrorStream(true)
+                .start();
+        try {
+            String output = new String(process.getInputStream().readAllBytes()).trim();
+            if (process.waitFor() != 0) {
+                throw new IOException("cp --reflink failed: " + output);
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning " + source, e);
+        }
+    }
+}
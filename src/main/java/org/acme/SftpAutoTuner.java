@@ -0,0 +1,249 @@
+package org.acme;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Tunes SFTP pipelining and buffer sizes per host from the measured round-trip time and throughput.
+ *
+ * <p>A single SFTP channel can move at most {@code outstanding requests × request size} bytes per
+ * round trip. On a high-latency link JSch's default of 16 outstanding requests of 32 KB caps a
+ * channel well below the available bandwidth, while a large fixed value only wastes memory on a
+ * fast local link. The tuner therefore watches every transfer:</p>
+ * <ul>
+ *   <li>The round-trip time is sampled with a {@code realpath} request whenever a channel is
+ *       opened or revalidated by the {@link SftpSessionPool}</li>
+ *   <li>The throughput of a single channel is sampled from every file of at least
+ *       {@code sftp.tuning.min-sample-size} bytes</li>
+ *   <li>If a channel reaches more than 80% of what its outstanding requests allow, it is limited by
+ *       pipelining and the number of requests is doubled; if it has far more requests outstanding
+ *       than the measured bandwidth-delay product needs, it shrinks towards twice that</li>
+ * </ul>
+ *
+ * <p>The local stream buffers and the TCP socket buffers follow the number of bytes in flight.
+ * Tuned values are written to {@code sftp.tuning.path} and picked up again after a restart.</p>
+ *
+ * @implNote JSch does not expose the SSH channel window, so the TCP socket buffers are tuned instead;
+ *           they bound the bytes in flight on the connection the same way.
+ */
+@ApplicationScoped
+public class SftpAutoTuner {
+
+    /** Payload of a single SFTP read or write request as sent by JSch. */
+    static final int REQUEST_SIZE = 32 * 1024;
+
+    static final int DEFAULT_BULK_REQUESTS = 16;
+
+    @Inject
+    @ConfigProperty(name = "sftp.tuning.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "sftp.tuning.path", defaultValue = "sftp-tuning.properties")
+    String tuningPath;
+
+    @Inject
+    @ConfigProperty(name = "sftp.tuning.max-bulk-requests", defaultValue = "512")
+    int maxBulkRequests;
+
+    @Inject
+    @ConfigProperty(name = "sftp.tuning.min-sample-size", defaultValue = "1048576")
+    long minSampleSize;
+
+    /** Local stream buffer size while tuning is off, and the smallest one the tuner picks. */
+    @Inject
+    @ConfigProperty(name = "sftp.tuning.buffer-size", defaultValue = "1048576")
+    int minBufferSize;
+
+    private final Map<String, HostTuning> hosts = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * Number of SFTP requests a channel to the host keeps outstanding.
+     */
+    public int bulkRequests(String host) {
+        return enabled ? tuning(host).bulkRequests : DEFAULT_BULK_REQUESTS;
+    }
+
+    /**
+     * Size of the local stream buffers used for transfers with the host.
+     */
+    public int bufferSize(String host) {
+        if (!enabled) {
+            return minBufferSize;
+        }
+        return (int) Math.max(minBufferSize, Math.min(8L * 1024 * 1024, inFlight(tuning(host).bulkRequests)));
+    }
+
+    /**
+     * Size of the TCP send and receive buffers for connections to the host, or {@code 0} to keep the
+     * operating system default.
+     */
+    public int socketBufferSize(String host) {
+        if (!enabled) {
+            return 0;
+        }
+        int bulkRequests = tuning(host).bulkRequests;
+        if (bulkRequests <= DEFAULT_BULK_REQUESTS) {
+            return 0;
+        }
+        return (int) Math.min(16L * 1024 * 1024, 2 * inFlight(bulkRequests));
+    }
+
+    /**
+     * Measured throughput of a single channel to the host in bytes per second, or {@code 0} if not measured yet.
+     */
+    public double bytesPerSecond(String host) {
+        HostTuning tuning = tuning(host);
+        synchronized (tuning) {
+            return tuning.bytesPerSecond;
+        }
+    }
+
+    /**
+     * Measured round-trip time to the host in milliseconds, or {@code 0} if not measured yet.
+     */
+    public double rttMillis(String host) {
+        HostTuning tuning = tuning(host);
+        synchronized (tuning) {
+            return tuning.rttMillis;
+        }
+    }
+
+    /**
+     * Records the time of one SFTP request/response round trip.
+     */
+    public void recordRoundTrip(String host, long nanos) {
+        if (enabled && nanos > 0) {
+            HostTuning tuning = tuning(host);
+            synchronized (tuning) {
+                // Follow a lower sample at once and a higher one slowly, since queueing and a busy server only add delay
+                double millis = nanos / 1_000_000.0;
+                tuning.rttMillis = tuning.rttMillis == 0 ? millis : Math.min(millis, tuning.rttMillis * 0.9 + millis * 0.1);
+            }
+        }
+    }
+
+    /**
+     * Records a finished file; successful files large enough to reach full speed adjust the tuning.
+     */
+    public void recordTransfer(String host, FileTransferResult result) {
+        if (!enabled || result.status() != FileTransferResult.Status.TRANSFERRED
+                || result.bytes() < minSampleSize || result.durationMillis() <= 0) {
+            return;
+        }
+        HostTuning tuning = tuning(host);
+        boolean changed;
+        synchronized (tuning) {
+            double rate = result.bytes() * 1000.0 / result.durationMillis();
+            tuning.bytesPerSecond = tuning.bytesPerSecond == 0 ? rate : tuning.bytesPerSecond * 0.7 + rate * 0.3;
+            if (tuning.rttMillis == 0) {
+                return;
+            }
+
+            double windowLimit = inFlight(tuning.bulkRequests) * 1000.0 / tuning.rttMillis;
+            double needed = tuning.bytesPerSecond * tuning.rttMillis / 1000.0 / REQUEST_SIZE;
+            int next = tuning.bulkRequests;
+            if (tuning.bytesPerSecond > windowLimit * 0.8) {
+                next = tuning.bulkRequests * 2;
+            } else if (needed * 2 < tuning.bulkRequests * 0.75) {
+                // Shrink in steps and only when clearly oversized, so noisy samples do not make it oscillate
+                next = Math.max((int) Math.ceil(needed * 2), tuning.bulkRequests * 3 / 4);
+            }
+            next = Math.max(DEFAULT_BULK_REQUESTS, Math.min(maxBulkRequests, next));
+            changed = next != tuning.bulkRequests;
+            if (changed) {
+                System.out.println("Tuning " + host + ": rtt " + Math.round(tuning.rttMillis) + " ms, "
+                        + Math.round(tuning.bytesPerSecond / 1024) + " KB/s per channel, outstanding requests "
+                        + tuning.bulkRequests + " -> " + next + "-------------------------");
+                tuning.bulkRequests = next;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    private static long inFlight(int bulkRequests) {
+        return (long) bulkRequests * REQUEST_SIZE;
+    }
+
+    private HostTuning tuning(String host) {
+        if (!loaded) {
+            load();
+        }
+        return hosts.computeIfAbsent(host, h -> new HostTuning());
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        Path file = Paths.get(tuningPath);
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+                for (String key : properties.stringPropertyNames()) {
+                    if (!key.endsWith(".bulk-requests")) {
+                        continue;
+                    }
+                    String host = key.substring(0, key.length() - ".bulk-requests".length());
+                    HostTuning tuning = new HostTuning();
+                    tuning.bulkRequests = Math.max(DEFAULT_BULK_REQUESTS,
+                            Math.min(maxBulkRequests, Integer.parseInt(properties.getProperty(key))));
+                    tuning.rttMillis = Double.parseDouble(properties.getProperty(host + ".rtt-ms", "0"));
+                    tuning.bytesPerSecond = Double.parseDouble(properties.getProperty(host + ".bytes-per-second", "0"));
+                    hosts.put(host, tuning);
+                }
+                System.out.println("Loaded SFTP tuning for " + hosts.keySet() + "-------------------------");
+            } catch (IOException | NumberFormatException e) {
+                // Tuning is an optimisation; start from the defaults again
+                System.err.println("❌ Could not load SFTP tuning from " + file + ": " + e.getMessage());
+            }
+        }
+        loaded = true;
+    }
+
+    private synchronized void save() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, HostTuning> entry : hosts.entrySet()) {
+            HostTuning tuning = entry.getValue();
+            synchronized (tuning) {
+                properties.setProperty(entry.getKey() + ".bulk-requests", String.valueOf(tuning.bulkRequests));
+                properties.setProperty(entry.getKey() + ".rtt-ms", String.valueOf(tuning.rttMillis));
+                properties.setProperty(entry.getKey() + ".bytes-per-second", String.valueOf(tuning.bytesPerSecond));
+            }
+        }
+        Path file = Paths.get(tuningPath).toAbsolutePath();
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "SFTP tuning per host, written by SftpAutoTuner");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("❌ Could not save SFTP tuning to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static class HostTuning {
+        int bulkRequests = DEFAULT_BULK_REQUESTS;
+        double rttMillis;
+        double bytesPerSecond;
+    }
+}
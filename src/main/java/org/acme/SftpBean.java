@@ -3,6 +3,9 @@ package org.acme;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
 
 
 @ApplicationScoped
@@ -11,6 +14,21 @@ public class SftpBean {
     @Inject
     SftpService sftpService;
 
+    @Inject
+    @ConfigProperty(name = "sftp.inbox.poll.enabled", defaultValue = "false")
+    boolean inboxPollEnabled;
+
+    @Inject
+    @ConfigProperty(name = "sftp.inbox.poll.min-interval", defaultValue = "10s")
+    Duration minPollInterval;
+
+    @Inject
+    @ConfigProperty(name = "sftp.inbox.poll.max-interval", defaultValue = "5m")
+    Duration maxPollInterval;
+
+    private long pollInterval;
+    private long nextPollAt;
+
     // Runs every day at midnight
 //    @Scheduled(cron = "0 0 0 * * ?")
 //    void runSftpUpload() {
@@ -18,9 +36,33 @@ public class SftpBean {
 //        sftpService.uploadFile();
 //    }
 
-//    @Scheduled(every = "10s")
-//    void runSftpDownload(){
-//        System.out.println("Running SFTP download");
-//        sftpService.downloadAllZips();
-//    }
+    /**
+     * Polls the remote Inbox and downloads new files.
+     *
+     * <p>The poll interval starts at {@code sftp.inbox.poll.min-interval}, doubles after every poll
+     * that finds nothing new up to {@code sftp.inbox.poll.max-interval}, and drops back to the minimum
+     * as soon as a poll downloads a file. A poll that is still running when the next one is due is
+     * never overlapped. Each poll is cheap while the Inbox is unchanged: it reuses a pooled session
+     * and only stats the Inbox directory (see {@link SftpService#downloadAllZips()}). Files that
+     * another download is fetching at the same time are skipped.</p>
+     */
+    @Scheduled(every = "1s", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void runSftpDownload() {
+        long now = System.currentTimeMillis();
+        if (!inboxPollEnabled || now < nextPollAt) {
+            return;
+        }
+        System.out.println("Running SFTP download");
+        TransferSummary summary = sftpService.downloadAllZips();
+
+        if (summary.transferred() > 0) {
+            pollInterval = minPollInterval.toMillis();
+        } else {
+            // Nothing new, or the server is unreachable; either way there is no point asking again soon
+            pollInterval = pollInterval == 0 ? minPollInterval.toMillis()
+                    : Math.min(pollInterval * 2, maxPollInterval.toMillis());
+        }
+        nextPollAt = System.currentTimeMillis() + pollInterval;
+        System.out.println("Next Inbox poll in " + pollInterval / 1000 + "s-------------------------");
+    }
 }
@@ -0,0 +1,31 @@
+package org.acme;
+
+/**
+ * Identifies an SFTP server together with the credentials used to log in to it.
+ *
+ * <p>Two endpoints are equal when host, port, user and authentication material are
+ * equal, which makes this record usable as the key of the {@link SftpSessionPool}.
+ * Either {@code password} or {@code privateKey} is set, never both.</p>
+ *
+ * @param host        remote server hostname or IP address
+ * @param port        SSH port of the remote server
+ * @param user        SFTP username to log in with
+ * @param password    password for password authentication, {@code null} for key authentication
+ * @param privateKey  path to the private SSH key, {@code null} for password authentication
+ * @param knownHosts  path to the known_hosts file; when {@code null} strict host key checking is disabled
+ */
+public record SftpEndpoint(String host, int port, String user, String password, String privateKey, String knownHosts) {
+
+    public static SftpEndpoint withPassword(String host, int port, String user, String password) {
+        return new SftpEndpoint(host, port, user, password, null, null);
+    }
+
+    public static SftpEndpoint withKey(String host, int port, String user, String privateKey, String knownHosts) {
+        return new SftpEndpoint(host, port, user, null, privateKey, knownHosts);
+    }
+
+    @Override
+    public String toString() {
+        return user + "@" + host + ":" + port + (privateKey != null ? " (key " + privateKey + ")" : " (password)");
+    }
+}
@@ -0,0 +1,59 @@
+package org.acme;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Per-host transfer settings.
+ *
+ * <p>A setting is looked up as {@code <name>.<host>} first and falls back to the global
+ * {@code <name>} property, e.g.:</p>
+ * <pre>{@code
+ * sftp.parallelism=2
+ * sftp.parallelism.sftp-ppr.cts-eoi.org=6
+ * }</pre>
+ */
+@ApplicationScoped
+public class SftpHostSettings {
+
+    @Inject
+    Config config;
+
+    @Inject
+    @ConfigProperty(name = "sftp.parallelism", defaultValue = "1")
+    int defaultParallelism;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.max-per-endpoint", defaultValue = "8")
+    int maxPerEndpoint;
+
+    @Inject
+    @ConfigProperty(name = "sftp.bandwidth.per-host", defaultValue = "0")
+    long defaultBandwidth;
+
+    /**
+     * Returns how many channels may transfer files to or from the host at the same time.
+     * The value is capped at the pool size, since every parallel transfer holds a pooled channel.
+     */
+    public int parallelism(String host) {
+        int parallelism = config.getOptionalValue("sftp.parallelism." + host, Integer.class).orElse(defaultParallelism);
+        return Math.max(1, Math.min(parallelism, maxPerEndpoint));
+    }
+
+    /**
+     * Returns how many channels may transfer files to or from the host while {@code reserved} other
+     * channels of the same pool are held, e.g. by a listing; at least one.
+     */
+    public int parallelism(String host, int reserved) {
+        return Math.max(1, Math.min(parallelism(host), maxPerEndpoint - reserved));
+    }
+
+    /**
+     * Returns the bandwidth limit for the host in bytes per second, or {@code 0} for no limit.
+     */
+    public long bandwidth(String host) {
+        return config.getOptionalValue("sftp.bandwidth.per-host." + host, Long.class).orElse(defaultBandwidth);
+    }
+}
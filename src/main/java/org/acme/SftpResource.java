@@ -1,10 +1,24 @@
 package org.acme;
 
+import com.jcraft.jsch.SftpATTRS;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Semaphore;
 
 @Path("/sftp")
 @Consumes(MediaType.APPLICATION_JSON)
@@ -14,9 +28,40 @@ public class SftpResource {
     @Inject
     SftpService sftpService;
 
+    @Inject
+    SftpSessionPool sessionPool;
+
+    @Inject
+    TransferJobManager jobManager;
+
+    @Inject
+    FanOutRelay fanOutRelay;
+
+    @Inject
+    BufferPool bufferPool;
+
+    @Inject
+    TreeSync treeSync;
+
+    @Inject
+    DurableTransferQueue transferQueue;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.max-per-endpoint", defaultValue = "8")
+    int maxInboxStreams;
+
+    /** Inbox downloads in progress; each one holds a pooled channel for as long as it runs. */
+    private Semaphore inboxStreams;
+
+    @PostConstruct
+    void createLimits() {
+        inboxStreams = new Semaphore(Math.max(1, maxInboxStreams));
+    }
+
     @POST
     @Path("/transfer")
-    public Response transferFile(TransferRequest request) {
+    public Response transferFile(TransferRequest request,
+                                 @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
         boolean success = sftpService.transferFile(
                 request.serverAHost,
                 request.userA,
@@ -25,7 +70,8 @@ public class SftpResource {
                 request.serverBHost,
                 request.userB,
                 request.passB,
-                request.remotePathB
+                request.remotePathB,
+                new TransferProgress(priority)
         );
 
         return success
@@ -33,28 +79,325 @@ public class SftpResource {
                 : Response.status(500).entity("Transfer failed").build();
     }
 
+    @POST
+    @Path("/fan-out")
+    public Response fanOut(FanOutRequest request,
+                           @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        String invalid = validate(request);
+        if (invalid != null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(invalid).build();
+        }
+        FanOutResult result = fanOutRelay.relay(request, new TransferProgress(priority));
+
+        return result.isSuccess()
+                ? Response.ok(result).build()
+                : Response.status(500).entity(result).build();
+    }
+
     @POST
     @Path("/upload")
-    public Response UploadFile() {
-        boolean success = sftpService.uploadFile();
+    public Response UploadFile(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        TransferSummary summary = sftpService.uploadFile(new TransferProgress(priority));
 
-        return success
-                ? Response.ok("Transfer complete").build()
-                : Response.status(500).entity("Transfer failed").build();
+        return summary.isSuccess()
+                ? Response.ok(summary).build()
+                : Response.status(500).entity(summary).build();
+    }
+
+    /**
+     * Uploads the request body straight to a configured SFTP server, chosen by the {@code endpoint}
+     * query parameter of {@link UploadRequest}, without writing it to local disk first.
+     */
+    @POST
+    @Path("/upload-stream")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response uploadStream(@BeanParam UploadRequest request,
+                                 @HeaderParam(HttpHeaders.CONTENT_LENGTH) @DefaultValue("-1") long contentLength,
+                                 @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority,
+                                 InputStream body) {
+        if (request.getRemotePath() == null || request.getRemotePath().isBlank() || request.getRemotePath().endsWith("/")) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("remotePath must name a file").build();
+        }
+        SftpEndpoint endpoint;
+        try {
+            endpoint = sftpService.uploadEndpoint(request);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        FileTransferResult result = sftpService.uploadStream(endpoint, request.getRemotePath(),
+                body, contentLength, new TransferProgress(priority));
+
+        return result.status() == FileTransferResult.Status.TRANSFERRED
+                ? Response.ok(result).build()
+                : Response.status(500).entity(result).build();
     }
 
     @GET
     @Path("/download-files")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response downloadFiles() {
-        boolean success = sftpService.downloadAllZips();
-
-        if (success) {
-            return Response.ok("{\"status\":\"Download complete\"}").build();
-        } else {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("{\"status\":\"Download failed\"}")
+    public Response downloadFiles(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        TransferSummary summary = sftpService.downloadAllZips(new TransferProgress(priority));
+
+        return summary.isSuccess()
+                ? Response.ok(summary).build()
+                : Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(summary).build();
+    }
+
+    /**
+     * Streams a file from the remote Inbox straight to the client, without staging it on disk.
+     *
+     * <p>A single {@code Range: bytes=...} header is honoured with {@code 206 Partial Content}, so
+     * clients can resume a download or fetch parts of it in parallel. Other range requests get the whole file.</p>
+     *
+     * <p>The body is a blocking {@link StreamingOutput}: JSch only offers blocking streams, so each
+     * download holds a worker thread and a pooled channel until it is done, and a slow client slows
+     * down the reads from the server. At most {@code sftp.pool.max-per-endpoint} downloads run at
+     * once; further requests get {@code 503 Service Unavailable} instead of waiting for a channel.</p>
+     */
+    @GET
+    @Path("/inbox/{fileName}")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response streamInboxFile(@PathParam("fileName") String fileName,
+                                    @HeaderParam("Range") String range,
+                                    @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority,
+                                    @Context Request request) {
+        if (fileName.isBlank() || fileName.contains("/") || fileName.contains("\\") || fileName.startsWith(".")) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        SftpATTRS attrs;
+        try {
+            attrs = sftpService.statInboxFile(fileName);
+        } catch (Exception e) {
+            System.err.println("❌ Could not stat " + fileName + ": " + e.getMessage());
+            return Response.status(Response.Status.BAD_GATEWAY).build();
+        }
+        if (attrs == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        long size = attrs.getSize();
+        long[] bounds = parseRange(range, size);
+        if (bounds == null) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + size)
                     .build();
         }
+        long offset = bounds[0];
+        long length = bounds[1] - bounds[0] + 1;
+        StreamingOutput body = null;
+        // HEAD requests never write the body, so they must not take a slot that only the body gives back
+        if (!HttpMethod.HEAD.equals(request.getMethod())) {
+            if (!inboxStreams.tryAcquire()) {
+                return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, 5)
+                        .entity("Too many Inbox downloads in progress")
+                        .build();
+            }
+            body = out -> {
+                try {
+                    sftpService.streamInboxFile(fileName, offset, length, out, new TransferProgress(priority));
+                } finally {
+                    inboxStreams.release();
+                }
+            };
+        }
+
+        Response.ResponseBuilder response = length == size
+                ? Response.ok(body)
+                : Response.status(Response.Status.PARTIAL_CONTENT).entity(body)
+                        .header("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+        return response
+                .header(HttpHeaders.CONTENT_LENGTH, length)
+                .header("Accept-Ranges", "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .lastModified(new Date(attrs.getMTime() * 1000L))
+                .build();
+    }
+
+    @POST
+    @Path("/sync/download")
+    public Response syncDownload(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return summaryResponse(treeSync.download(new TransferProgress(priority)));
+    }
+
+    @POST
+    @Path("/sync/upload")
+    public Response syncUpload(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return summaryResponse(treeSync.upload(new TransferProgress(priority)));
+    }
+
+    @GET
+    @Path("/pool")
+    public SftpSessionPool.PoolStats poolStats() {
+        return sessionPool.stats();
+    }
+
+    @GET
+    @Path("/buffers")
+    public BufferPool.Stats bufferStats() {
+        return bufferPool.stats();
+    }
+
+    /**
+     * Adds files to the persistent transfer queue; responds once they are recorded on disk and
+     * would survive a restart.
+     */
+    @POST
+    @Path("/queue")
+    public Response enqueue(List<QueuedTransferRequest> requests,
+                            @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        if (requests == null || requests.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("No transfers given").build();
+        }
+        try {
+            return Response.accepted(transferQueue.enqueue(requests, priority)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(e.getMessage()).build();
+        } catch (IOException e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/queue")
+    public DurableTransferQueue.Stats queueStats() {
+        return transferQueue.stats();
+    }
+
+    @POST
+    @Path("/jobs/upload")
+    public Response submitUpload(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return accepted(jobManager.submitUpload(priority));
+    }
+
+    @POST
+    @Path("/jobs/download")
+    public Response submitDownload(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return accepted(jobManager.submitDownload(priority));
+    }
+
+    @POST
+    @Path("/jobs/transfer")
+    public Response submitTransfer(TransferRequest request,
+                                   @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return accepted(jobManager.submitTransfer(request, priority));
+    }
+
+    @POST
+    @Path("/jobs/fan-out")
+    public Response submitFanOut(FanOutRequest request,
+                                 @QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        String invalid = validate(request);
+        if (invalid != null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(invalid).build();
+        }
+        return accepted(jobManager.submitFanOut(request, priority));
+    }
+
+    @POST
+    @Path("/jobs/sync/download")
+    public Response submitSyncDownload(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return accepted(jobManager.submitSync(TransferMetrics.Direction.DOWNLOAD, priority));
+    }
+
+    @POST
+    @Path("/jobs/sync/upload")
+    public Response submitSyncUpload(@QueryParam("priority") @DefaultValue("normal") BandwidthScheduler.Priority priority) {
+        return accepted(jobManager.submitSync(TransferMetrics.Direction.UPLOAD, priority));
+    }
+
+    @GET
+    @Path("/jobs")
+    public List<TransferJob.Status> listJobs() {
+        return jobManager.list().stream().map(TransferJob::status).toList();
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    public Response getJob(@PathParam("id") String id) {
+        TransferJob job = jobManager.get(id);
+        return job == null
+                ? Response.status(Response.Status.NOT_FOUND).build()
+                : Response.ok(job.status()).build();
+    }
+
+    @DELETE
+    @Path("/jobs/{id}")
+    public Response cancelJob(@PathParam("id") String id) {
+        TransferJob job = jobManager.get(id);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return jobManager.cancel(job)
+                ? Response.ok(job.status()).build()
+                : Response.status(Response.Status.CONFLICT).entity(job.status()).build();
+    }
+
+    /**
+     * Returns the first and last byte requested by a {@code Range} header, the whole file if there is
+     * no header or it asks for several ranges, or {@code null} if the range lies outside the file.
+     */
+    private static long[] parseRange(String range, long size) {
+        long[] whole = {0, size - 1};
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return whole;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return whole;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range: the last n bytes
+                long suffix = Long.parseLong(last);
+                return suffix <= 0 || size == 0 ? null : new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            return start >= size || start > end ? null : new long[]{start, end};
+        } catch (NumberFormatException e) {
+            // a malformed header is ignored
+            return whole;
+        }
+    }
+
+    /**
+     * Returns why a fan-out request cannot be relayed, or {@code null} if it names a source file and
+     * at least one destination.
+     */
+    private static String validate(FanOutRequest request) {
+        if (request == null || isBlank(request.serverAHost) || isBlank(request.remotePathA)) {
+            return "serverAHost and remotePathA are required";
+        }
+        if (request.destinations == null || request.destinations.isEmpty()) {
+            return "At least one destination is required";
+        }
+        for (FanOutRequest.Destination destination : request.destinations) {
+            if (destination == null || isBlank(destination.host) || isBlank(destination.remotePath)) {
+                return "Every destination needs a host and a remotePath";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static Response summaryResponse(TransferSummary summary) {
+        return summary.isSuccess()
+                ? Response.ok(summary).build()
+                : Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(summary).build();
+    }
+
+    private Response accepted(TransferJob job) {
+        return Response.accepted(job.status())
+                .location(URI.create("/sftp/jobs/" + job.id()))
+                .build();
     }
 }
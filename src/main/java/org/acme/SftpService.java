@@ -3,6 +3,7 @@ package org.acme;
 import com.jcraft.jsch.*;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.*;
@@ -10,8 +11,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipFile;
 
 
 @ApplicationScoped
@@ -53,23 +64,90 @@ public class SftpService {
     @ConfigProperty(name = "known.hosts")
     String knownHosts;
 
+    /** Name of the configured CTS server among the endpoints of {@link #uploadEndpoint}. */
+    static final String CTS_ENDPOINT = "cts";
+
+    /** Suffix of files that are still being transferred; they are renamed once complete. */
+    static final String PART_SUFFIX = ".part";
+
+    /** Suffix of files that are being downloaded in parallel segments; they are not resumable. */
+    static final String SEGMENTS_SUFFIX = ".segments";
+
+    /** Files being transferred right now; see {@link FileClaims}. */
+    private final FileClaims claims = new FileClaims();
+
+    @Inject
+    Config config;
+
+    @Inject
+    SftpSessionPool sessionPool;
+
+    @Inject
+    SftpHostSettings hostSettings;
+
+    @Inject
+    SyncIndex syncIndex;
+
     @Inject
-    @ConfigProperty(name = "local.sent.path")
-    String sentPath;
+    SegmentedDownloader segmentedDownloader;
+
+    @Inject
+    TransferMetrics metrics;
+
+    @Inject
+    SentArchiver sentArchiver;
+
+    @Inject
+    RemoteMetadataCache metadataCache;
+
+    @Inject
+    SftpAutoTuner autoTuner;
+
+    @Inject
+    RemoteChecksumVerifier checksumVerifier;
+
+    @Inject
+    BandwidthScheduler bandwidth;
+
+    @Inject
+    BufferPool bufferPool;
+
+    @Inject
+    BatchPlanner planner;
+
+    @Inject
+    @ConfigProperty(name = "sftp.listing.queue-size", defaultValue = "1024")
+    int listingQueueSize;
+
+    @Inject
+    @ConfigProperty(name = "sftp.transfer.mode", defaultValue = "stream")
+    String transferMode;
+
+    @Inject
+    @ConfigProperty(name = "sftp.transfer.buffer-size", defaultValue = "8388608")
+    int relayBufferSize;
+
+    @Inject
+    @ConfigProperty(name = "sftp.transfer.spill-fallback", defaultValue = "true")
+    boolean spillFallback;
 
 
     /**
-     *  Transfers a file between two remote SFTP servers by downloading it
-     *  from the source server and then uploading it to the destination server.
-     * <p>The method first downloads the file from <b>Server A</b> to a temporary
-     * local path, then uploads it to <b>Server B</b>. After the transfer is complete,
-     * the temporary file is deleted.</p>
+     *  Transfers a file between two remote SFTP servers by relaying it
+     *  from the source server to the destination server.
+     * <p>In {@code stream} mode (the default) the file is read from <b>Server A</b> and written
+     * to <b>Server B</b> at the same time through a bounded in-memory {@link RingBufferPipe},
+     * so nothing touches the local disk and a slow side throttles the fast one.</p>
      *
-     * <h3>Process Flow:</h3>
+     * <p>In {@code spill} mode, or when streaming fails and {@code sftp.transfer.spill-fallback}
+     * is enabled, the file is downloaded to a temporary file unique to this transfer, uploaded
+     * to <b>Server B</b> and the temporary file is deleted.</p>
+     *
+     * <h3>Process Flow (stream mode):</h3>
      * <ol>
-     *   <li>Download file from source server (Server A) → temporary local file</li>
-     *   <li>Upload temporary local file → destination server (Server B)</li>
-     *   <li>Delete the temporary local file</li>
+     *   <li>Borrow a pooled channel for Server A and one for Server B</li>
+     *   <li>A relay thread writes {@code get} from Server A into the ring buffer</li>
+     *   <li>The calling thread feeds {@code put} to Server B from the ring buffer</li>
      * </ol>
      *
      * <h3>Usage Example:</h3>
@@ -94,32 +172,132 @@ public class SftpService {
      * @param userB    username for the destination server
      * @param passB     password for the destination server
      * @param remotePathB  remote path (including filename) where the file will be uploaded
-     *  *                      on the destination server
+     *                      on the destination server
      * @return {@code true} if the file was successfully transferred from Server A
      *         to Server B, {@code false} otherwise
-     *
-     * @throws Exception if any error occurs during download, upload, or cleanup
      */
     public boolean transferFile(String serverAHost, String userA, String passA, String remotePathA,
                                 String serverBHost, String userB, String passB, String remotePathB) {
-        String tempLocalPath = "/tmp/temp_transfer_file";
+        return transferFile(serverAHost, userA, passA, remotePathA, serverBHost, userB, passB, remotePathB, new TransferProgress());
+    }
+
+    /**
+     * Same as {@link #transferFile(String, String, String, String, String, String, String, String)},
+     * reporting into {@code progress} and stopping when it is cancelled.
+     */
+    public boolean transferFile(String serverAHost, String userA, String passA, String remotePathA,
+                                String serverBHost, String userB, String passB, String remotePathB,
+                                TransferProgress progress) {
+        return transferFile(SftpEndpoint.withPassword(serverAHost, 22, userA, passA), remotePathA,
+                SftpEndpoint.withPassword(serverBHost, 4022, userB, passB), remotePathB, progress);
+    }
+
+    /**
+     * Relays {@code remotePathA} on {@code source} to {@code remotePathB} on {@code destination}.
+     */
+    boolean transferFile(SftpEndpoint source, String remotePathA, SftpEndpoint destination, String remotePathB,
+                         TransferProgress progress) {
+        progress.addTotals(1, 0);
 
+        if (!"spill".equalsIgnoreCase(transferMode)) {
+            try {
+                relayFile(source, remotePathA, destination, remotePathB, progress);
+                System.out.println("✅ File streamed from Server A to Server B.");
+                progress.fileDone();
+                return true;
+            } catch (Exception e) {
+                System.err.println("❌ Streaming transfer failed: " + e.getMessage());
+                if (!spillFallback || progress.isCancelled()) {
+                    progress.fileDone();
+                    return false;
+                }
+                System.out.println("Falling back to spilling the transfer to a temporary file-------------------------");
+            }
+        }
+        boolean success = spillFile(source, remotePathA, destination, remotePathB, progress);
+        progress.fileDone();
+        return success;
+    }
+
+    /**
+     * Streams a file from one server to another through a bounded in-memory buffer.
+     *
+     * @throws Exception if either leg of the relay fails; the other leg is aborted as well
+     */
+    private void relayFile(SftpEndpoint source, String remotePathA, SftpEndpoint destination, String remotePathB,
+                           TransferProgress progress) throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(relayBufferSize);
+        AtomicReference<Exception> downloadError = new AtomicReference<>();
+
+        String fileName = Paths.get(remotePathB).getFileName().toString();
+        long start = System.currentTimeMillis();
+
+        // The download leg reports to its own progress so that relayed bytes are only counted once
+        try (TransferMetrics.Tracker downloadTracker = metrics.track(source.host(), TransferMetrics.Direction.DOWNLOAD, new TransferProgress());
+             TransferMetrics.Tracker uploadTracker = metrics.track(destination.host(), TransferMetrics.Direction.UPLOAD, progress);
+             PooledSftpChannel from = sessionPool.borrow(source);
+             PooledSftpChannel to = sessionPool.borrow(destination)) {
+            Thread downloader = new Thread(() -> {
+                try (OutputStream sink = bandwidth.throttle(pipe.sink(), source.host(), progress.priority())) {
+                    from.channel().get(remotePathA, sink, new ProgressLogger(downloadTracker, 0, 0));
+                } catch (Exception e) {
+                    from.invalidate();
+                    downloadError.set(e);
+                    pipe.fail(e);
+                }
+            }, "sftp-relay-" + source.host());
+            downloader.start();
+
+            try (InputStream in = bandwidth.throttle(pipe.source(), destination.host(), progress.priority())) {
+                to.channel().put(in, remotePathB, new ProgressLogger(uploadTracker, 0, 0));
+                // JSch ends the upload quietly when the monitor cancels it
+                progress.checkCancelled();
+                downloader.join();
+                if (downloadError.get() != null) {
+                    throw downloadError.get();
+                }
+            } catch (Exception e) {
+                to.invalidate();
+                pipe.fail(e);
+                downloader.join();
+                Exception cause = downloadError.get() != null ? downloadError.get() : e;
+                FileTransferResult failed = FileTransferResult.failed(fileName, System.currentTimeMillis() - start, cause);
+                downloadTracker.finish(failed);
+                uploadTracker.finish(failed);
+                throw cause;
+            }
+            FileTransferResult transferred = FileTransferResult.transferred(fileName,
+                    downloadTracker.progress().snapshot().bytes(), System.currentTimeMillis() - start);
+            downloadTracker.finish(transferred);
+            uploadTracker.finish(transferred);
+        }
+    }
+
+    /**
+     * Transfers a file by downloading it to a temporary file unique to this transfer,
+     * uploading it and deleting the temporary file.
+     */
+    private boolean spillFile(SftpEndpoint source, String remotePathA, SftpEndpoint destination, String remotePathB,
+                              TransferProgress progress) {
+        Path tempFile = null;
         try {
+            tempFile = Files.createTempFile("sftp-transfer-", ".tmp");
+            String tempLocalPath = tempFile.toString();
+
             // Step 1: Download from Server A
-            boolean downloaded = downloadFileFromServer(serverAHost, userA, passA, remotePathA, tempLocalPath);
-            if (!downloaded) return false;
+            boolean downloaded = downloadFileFromServer(source, remotePathA, tempLocalPath, progress);
+            if (!downloaded || progress.isCancelled()) return false;
 
             // Step 2: Upload to Server B
-            boolean uploaded = uploadFileToServer(serverBHost, userB, passB, tempLocalPath, remotePathB);
-            if (!uploaded) return false;
-
-            // Clean up temp file
-            new File(tempLocalPath).delete();
-
-            return true;
-        } catch (Exception e) {
+            return uploadFileToServer(destination, tempLocalPath, remotePathB, progress);
+        } catch (IOException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            // Clean up temp file
+            if (tempFile != null) {
+                tempFile.toFile().delete();
+            }
         }
     }
 
@@ -128,24 +306,21 @@ public class SftpService {
      * Downloads a file from a remote SFTP server using Username and Password.
      *
      * <p>
-     *     This method establishes an SFTP connection to the specified server using a username and password,
+     *     This method borrows a pooled SFTP channel for the specified server using a username and password,
      *     then downloads the provided file from the remote directory.
      * </p>
      *
      * <h3>Usage Example:</h3>
      * <pre>{@code
      * downloadFileFromServer(
-     *  "sftp.example.com",
-     *  "sftp-user",
-     *  "password",
-     *  "/remote/path/file.txt
-     *  "/local/path/file.txt",
+     *  SftpEndpoint.withPassword("sftp.example.com", 22, "sftp-user", "password"),
+     *  "/remote/path/file.txt",
+     *  "/local/path/file.txt"
      *  );
      * }</pre>
-     * @param host  Remote server hostname or IP address
-     * @param user   SFTP username to log in with
-     * @param password   SFTP user's password
+     * @param endpoint  Remote server and the username and password to log in with
      * @param localPath  Absolute path to the local path
+     * @param progress  progress to report the downloaded bytes to
      * @param remotePath  Absolute path (including filename) where the file should be downloaded
      *                   from on the remote server
      * @throws JSchException    if the SSH connection or authentication fails
@@ -153,30 +328,35 @@ public class SftpService {
      * @throws FileNotFoundException if the remote file does not exist
      * @throws IOException  if there is an error reading the file
      */
-    private boolean downloadFileFromServer(String host, String user, String password, String remotePath, String localPath) {
-        try {
-            JSch jsch = new JSch();
-            Session session = jsch.getSession(user, host, 22);
-            session.setPassword(password);
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect();
-
-            ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
-            sftp.connect();
-
-            FileOutputStream fos = new FileOutputStream(localPath);
-            sftp.get(remotePath, fos);
-            fos.close();
+    private boolean downloadFileFromServer(SftpEndpoint endpoint, String remotePath, String localPath, TransferProgress progress) {
+        FileTransferResult result = tracked(endpoint.host(), TransferMetrics.Direction.DOWNLOAD, progress, remotePath, tracker -> {
+            long size;
+            try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+                size = pooled.channel().stat(remotePath).getSize();
+            }
+            if (segmentedDownloader.appliesTo(endpoint.host(), size)) {
+                segmentedDownloader.download(endpoint, remotePath, size, Paths.get(localPath), tracker);
+                return size;
+            }
 
-            sftp.disconnect();
-            session.disconnect();
+            try (PooledSftpChannel pooled = sessionPool.borrow(endpoint);
+                 OutputStream fos = bandwidth.throttle(new FileOutputStream(localPath), endpoint.host(), progress.priority())) {
+                try {
+                    pooled.channel().get(remotePath, fos, new ProgressLogger(tracker, size, 0));
+                } catch (SftpException e) {
+                    pooled.invalidate();
+                    throw e;
+                }
+                return size;
+            }
+        });
 
-            System.out.println("✅ File downloaded from Server A.");
-            return true;
-        } catch (Exception e) {
-            System.err.println("❌ Download failed: " + e.getMessage());
+        if (result.status() == FileTransferResult.Status.FAILED) {
+            System.err.println("❌ Download failed: " + result.error());
             return false;
         }
+        System.out.println("✅ File downloaded from Server A.");
+        return true;
     }
 
 
@@ -184,24 +364,21 @@ public class SftpService {
      * Uploads a file to a remote SFTP server using Username and Password.
      *
      * <p>
-     *     This method establishes an SFTP connection to the specified server using a username and password,
+     *     This method borrows a pooled SFTP channel for the specified server using a username and password,
      *     then uploads the provided file to the remote directory.
      * </p>
      *
      * <h3>Usage Example:</h3>
      * <pre>{@code
      * uploadFileToServer(
-     *  "sftp.example.com",
-     *  "sftp-user",
-     *  "password",
+     *  SftpEndpoint.withPassword("sftp.example.com", 4022, "sftp-user", "password"),
      *  "/local/path/file.txt",
-     *  "/remote/path/file.txt
+     *  "/remote/path/file.txt"
      *  );
      * }</pre>
-     * @param host  Remote server hostname or IP address
-     * @param user   SFTP username to log in with
-     * @param password   SFTP user's password
+     * @param endpoint  Remote server and the username and password to log in with
      * @param localPath  Absolute path to the local file to upload
+     * @param progress  progress to report the uploaded bytes to
      * @param remotePath  Absolute path (including filename) where the file should be uploaded
      *                   on the remote server
      * @throws JSchException    if the SSH connection or authentication fails
@@ -209,260 +386,1121 @@ public class SftpService {
      * @throws FileNotFoundException if the local file does not exist
      * @throws IOException  if there is an error reading the local file
      */
-    private boolean uploadFileToServer(String host, String user, String password, String localPath, String remotePath) {
-        try {
-            JSch jsch = new JSch();
-            Session session = jsch.getSession(user, host, 4022);
-            session.setPassword(password);
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect();
-
-            ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
-            sftp.connect();
+    private boolean uploadFileToServer(SftpEndpoint endpoint, String localPath, String remotePath, TransferProgress progress) {
+        FileTransferResult result = tracked(endpoint.host(), TransferMetrics.Direction.UPLOAD, progress, remotePath, tracker -> {
+            long size = new File(localPath).length();
+            try (PooledSftpChannel pooled = sessionPool.borrow(endpoint);
+                 InputStream fis = bandwidth.throttle(new FileInputStream(localPath), endpoint.host(), progress.priority())) {
+                try {
+                    pooled.channel().put(fis, remotePath, new ProgressLogger(tracker, size, 0));
+                } catch (SftpException e) {
+                    pooled.invalidate();
+                    throw e;
+                }
+                progress.checkCancelled();
+                return size;
+            }
+        });
 
-            FileInputStream fis = new FileInputStream(localPath);
-            sftp.put(fis, remotePath);
-            fis.close();
+        if (result.status() == FileTransferResult.Status.FAILED) {
+            System.err.println("❌ Upload failed: " + result.error());
+            return false;
+        }
+        System.out.println("✅ File uploaded to Server B.");
+        return true;
+    }
 
-            sftp.disconnect();
-            session.disconnect();
+    /**
+     * A single-file transfer that returns the number of bytes it moved.
+     */
+    @FunctionalInterface
+    private interface TrackedTransfer {
+        long run(TransferMetrics.Tracker tracker) throws Exception;
+    }
 
-            System.out.println("✅ File uploaded to Server B.");
-            return true;
-        } catch (Exception e) {
-            System.err.println("❌ Upload failed: " + e.getMessage());
-            return false;
+    /**
+     * Runs a single-file transfer under a metrics tracker and converts its outcome to a {@link FileTransferResult}.
+     */
+    private FileTransferResult tracked(String host, TransferMetrics.Direction direction, TransferProgress progress,
+                                       String fileName, TrackedTransfer transfer) {
+        long start = System.currentTimeMillis();
+        try (TransferMetrics.Tracker tracker = metrics.track(host, direction, progress)) {
+            FileTransferResult result;
+            try {
+                result = FileTransferResult.transferred(fileName, transfer.run(tracker), System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                result = FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+            }
+            tracker.finish(result);
+            return result;
         }
     }
 
     /**
-     * Establishes and returns an authenticated SFTP channel using SSH key authentication.
+     * Returns the endpoint of the configured CTS server, authenticated with the configured SSH key.
      *
-     * <p>This method initializes JSch, loads the private key for authentication,
-     * sets known hosts for server fingerprint verification, and establishes
-     * an SFTP channel to the configured server. The caller is responsible
-     * for closing the channel and the associated session after use.</p>
-     *
-     * <h3>Authentication Flow:</h3>
-     * <ol>
-     *   <li>Load the private SSH key from the configured path</li>
-     *   <li>Load known hosts file for server fingerprint verification</li>
-     *   <li>Create and connect an SSH session with the specified user, host, and port</li>
-     *   <li>Open and connect an SFTP channel from the session</li>
-     * </ol>
+     * <p>Channels for this endpoint are borrowed from the {@link SftpSessionPool}, which
+     * loads the private key, verifies the server fingerprint against the known hosts file
+     * and keeps the authenticated session open between calls.</p>
      *
      * <h3>Usage Example:</h3>
      * <pre>{@code
-     * ChannelSftp sftp = setupSftpChannel();
-     * try {
-     *     sftp.put("/local/path/file.txt", "/remote/path/file.txt");
-     * } finally {
-     *     sftp.disconnect();
-     *     sftp.getSession().disconnect();
+     * try (PooledSftpChannel pooled = sessionPool.borrow(ctsEndpoint())) {
+     *     pooled.channel().put("/local/path/file.txt", "/remote/path/file.txt");
      * }
      * }</pre>
      *
-     * @return an authenticated {@link ChannelSftp} object connected to the server
-     *
-     * @throws JSchException if authentication or channel setup fails
-     *
      * @implNote In production, ensure {@code knownHosts} points to a valid known_hosts file
-     *           for host fingerprint verification. For testing, strict host key checking
-     *           can be disabled using:
-     *           <pre>{@code session.setConfig("StrictHostKeyChecking", "no"); }</pre>
+     *           for host fingerprint verification.
      */
-    private ChannelSftp setupSftpChannel() throws JSchException {
-        JSch jsch = new JSch();
-
-        System.out.println("Authentication started-------------------------");
-
-        // Load private key
-        jsch.addIdentity(privateKey);
-        System.out.println("Authentication ended-------------------------");
-
-        // Note:Important in production
-        // Load known hosts for server fingerprint verification
-        jsch.setKnownHosts(knownHosts);
-        System.out.println("Server Authentication ended-------------------------");
-
-        // Create session
-        Session session = jsch.getSession(user, host, port);
-        //Note: Only needed in test
-        // session.setConfig("StrictHostKeyChecking", "no");
-        session.setTimeout(60000);
-        session.connect();
-
-        System.out.println("Session created-------------------------");
-
-        ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
-        sftp.connect();
-        System.out.println("SFTP Channel opened-------------------------");
-        return sftp;
+    public SftpEndpoint ctsEndpoint() {
+        return SftpEndpoint.withKey(host, port, user, privateKey, knownHosts);
     }
 
     /**
      * Uploads all files in a specified local path to a remote SFTP server using SSH key authentication.
      *
-     * <p>This method establishes an SFTP connection to the specified server
-     * using a private SSH key, then uploads the provided local files to the
-     * given remote directory. The connection is closed automatically once
-     * the transfer is complete.</p>
-     * @throws JSchException           if the SSH connection or authentication fails
-     * @throws SftpException           if the upload fails (e.g., invalid path, no permission)
-     * @throws FileNotFoundException   if the local file does not exist
-     * @throws IOException             if there is an error reading the local file
-     */
-    public boolean uploadFile() {
-        System.out.println("privateKey:----------------- " + privateKey);
+     * <p>Zip files are grouped by their country directory (the first two letters of the
+     * file name, e.g. {@code MX}) and uploaded by up to {@code sftp.parallelism} workers
+     * (overridable per host, see {@link SftpHostSettings}). Each worker borrows a channel from
+     * the {@link SftpSessionPool}, changes into the country directory once and uploads its
+     * share of that group, so one large country no longer holds up the others. Missing country
+     * directories are created; if that fails, the files of that country fail instead of being
+     * uploaded elsewhere.</p>
+     *
+     * @return a per-file summary of the upload; a file that fails does not stop the others
+     */
+    public TransferSummary uploadFile() {
+        return uploadFile(new TransferProgress());
+    }
+
+    /**
+     * Same as {@link #uploadFile()}, reporting into {@code progress} and stopping when it is cancelled.
+     */
+    public TransferSummary uploadFile(TransferProgress progress) {
         System.out.println("ctsUploadPath:---------------" + ctsUploadPath);
         System.out.println("localUploadPath:--------------" + localUploadPath);
-        System.out.println("knownHosts:-------------------" + knownHosts);
         System.out.println("host:-------------------------" + host);
         System.out.println("port:-------------------------" + port);
         System.out.println("user:-------------------------" + user);
-        System.out.println("ctsDownloadPath:---------------" + ctsDownloadPath);
-        System.out.println("localDownloadPath:---------------" + localDownloadPath);
+        long start = System.currentTimeMillis();
 
-        try {
+        File localDir = new File(localUploadPath);
+        // list all files in local directory
+        File[] files = localDir.listFiles();
+        if (files == null || files.length == 0) {
+            System.out.println("No files present in" + localUploadPath + "-------------------------");
+            return TransferSummary.of(List.of(), System.currentTimeMillis() - start);
+        }
+        System.out.println("files:---------------------" + Arrays.toString(files));
+        return uploadFiles(Arrays.asList(files), progress);
+    }
 
-            ChannelSftp sftp = setupSftpChannel();
-
-            System.out.println("File creation started-------------------------");
-            File localDir = new File(localUploadPath);
-            // list all files in local directory
-            File[] files = localDir.listFiles();
-            if(files == null ||  files.length == 0) {
-                System.out.println("No files present in" + localUploadPath +"-------------------------");
-                return false;
-            }
-            System.out.println("files:---------------------" + Arrays.toString(files));
-
-            final int  BUFFER_SIZE = 1024 * 1024;
-            // Iterate files that end with .zip
-            for(File file : files) {
-                String fileName = file.getName();
-                if(fileName.toLowerCase().endsWith(".zip")) {
-                    // For each file upload the file to remote location plus file initials e.g MX
-                    String countryDir = ctsUploadPath + "/" + fileName.substring(0,2);
-                    try {
-                        sftp.cd(countryDir);
-                    }catch(SftpException e) {
-                        e.printStackTrace();
-                    }
-                    System.out.println("remotePath:----------------------------" + countryDir);
-                    String localPath = localUploadPath + fileName;
-                    System.out.println("localPath:-----------------------------" + localPath);
-                    try(BufferedInputStream bis = new BufferedInputStream( new FileInputStream(localPath), BUFFER_SIZE)){
-                        sftp.put(bis, fileName, new SftpProgressMonitor() {
-                            private long transferred = 0;
-                            private long fileSize = file.length();
-
-                            @Override
-                            public void init(int op, String src, String dest, long max) {
-                                System.out.printf("Started upload: %s (%d bytes)%n", src, fileSize);
-                            }
+    /**
+     * Uploads the given Outbox files the same way as {@link #uploadFile()}, without listing the Outbox.
+     *
+     * <p>Files that are not zip files, no longer exist, were already uploaded unchanged or are being
+     * uploaded by another transfer are skipped as in a full run.</p>
+     */
+    public TransferSummary uploadFiles(List<File> files, TransferProgress progress) {
+        long start = System.currentTimeMillis();
 
-                            @Override
-                            public boolean count(long bytes) {
-                                transferred += bytes;
-                                if (transferred % (1024 * 1024) < bytes) { // log every ~1 MB
-                                    System.out.printf("Progress: %.2f%%%n", (transferred * 100.0) / fileSize);
-                                }
-                                return true;
-                            }
+        // Group files that end with .zip by country directory e.g MX
+        List<FileTransferResult> results = new ArrayList<>();
+        Map<String, List<File>> byCountry = new TreeMap<>();
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!file.isFile() || !fileName.toLowerCase().endsWith(".zip")) {
+                continue;
+            }
+            if (syncIndex.isCurrent(SyncIndex.Direction.UPLOAD, fileName, file.length(), file.lastModified())) {
+                // Already uploaded and unchanged since
+                results.add(FileTransferResult.skipped(fileName));
+            } else {
+                String countryDir = ctsUploadPath + "/" + fileName.substring(0, 2);
+                byCountry.computeIfAbsent(countryDir, k -> new ArrayList<>()).add(file);
+                progress.addTotals(1, file.length());
+            }
+        }
 
-                            @Override
-                            public void end() {
-                                System.out.println("Upload complete:----------------- " + fileName);
-                                try {
-                                    Path source = Paths.get(localPath);
-                                    Path destination = Paths.get(sentPath, fileName);
-                                    Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
+        int parallelism = hostSettings.parallelism(host);
+        List<UploadBatch> batches = new ArrayList<>();
+        for (Map.Entry<String, List<File>> group : byCountry.entrySet()) {
+            // Split large groups so that all workers can help with a country that dominates the Outbox
+            for (List<File> part : planner.partition(group.getValue(), file -> planner.estimateMillis(host, file.length()), parallelism)) {
+                batches.add(new UploadBatch(group.getKey(), part));
+            }
+        }
+        // The longest batches start first, so no large file is left for the end when the other channels are idle
+        BatchPlanner.Plan<UploadBatch> plan = planner.plan(batches, this::estimateMillis, parallelism);
 
-                            }
-                        }, ChannelSftp.OVERWRITE);
+        System.out.println("Uploading " + byCountry.size() + " countries in " + batches.size() + " batches over " + parallelism + " channels, "
+                + results.size() + " unchanged, predicted " + plan.predictedMillis() + " ms-------------------------");
+        long transferStart = System.currentTimeMillis();
+        for (List<FileTransferResult> batchResults : TransferExecutor.runAll("sftp-upload", parallelism, plan.order(),
+                batch -> uploadBatch(batch, progress))) {
+            results.addAll(batchResults);
+        }
+
+        TransferSummary summary = TransferSummary.of(results, System.currentTimeMillis() - start).withPrediction(plan.predictedMillis());
+        System.out.println("Uploaded " + summary.transferred() + " files, " + summary.failed() + " failed in "
+                + (System.currentTimeMillis() - transferStart) + " ms, predicted " + plan.predictedMillis() + " ms-------------------------");
+        return summary;
+    }
+
+    /**
+     * Zip files that go into the same remote country directory.
+     */
+    private record UploadBatch(String countryDir, List<File> files) {
+    }
+
+    private long estimateMillis(UploadBatch batch) {
+        long millis = 0;
+        for (File file : batch.files()) {
+            millis += planner.estimateMillis(host, file.length());
+        }
+        return millis;
+    }
+
+    /**
+     * Uploads one batch over a single pooled channel, changing into the country directory once.
+     */
+    private List<FileTransferResult> uploadBatch(UploadBatch batch, TransferProgress progress) {
+        List<FileTransferResult> results = new ArrayList<>(batch.files().size());
+        long start = System.currentTimeMillis();
+
+        while (results.size() < batch.files().size()) {
+            if (progress.isCancelled()) {
+                for (File file : batch.files().subList(results.size(), batch.files().size())) {
+                    results.add(FileTransferResult.failed(file.getName(), 0, new CancellationException("Transfer cancelled")));
+                }
+                break;
+            }
+            SftpEndpoint endpoint = ctsEndpoint();
+            try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+                ChannelSftp sftp = pooled.channel();
+                try {
+                    // Upload into the country directory or not at all, never into the previous working directory
+                    metadataCache.ensureDirectory(endpoint, sftp, batch.countryDir());
+                    sftp.cd(batch.countryDir());
+                } catch (SftpException e) {
+                    metadataCache.invalidate(endpoint, batch.countryDir());
+                    throw e;
+                }
+                System.out.println("remotePath:----------------------------" + batch.countryDir());
+
+                for (File file : batch.files().subList(results.size(), batch.files().size())) {
+                    FileTransferResult result = uploadZip(sftp, file, batch.countryDir() + "/" + file.getName(), progress);
+                    results.add(result);
+                    if (result.status() == FileTransferResult.Status.FAILED) {
+                        // The channel may still hold replies of the aborted upload; continue on a fresh one
+                        pooled.invalidate();
+                        break;
                     }
                 }
+            } catch (Exception e) {
+                // No channel could be borrowed or the country directory is unusable; every remaining file in the batch fails
+                for (File file : batch.files().subList(results.size(), batch.files().size())) {
+                    results.add(FileTransferResult.failed(file.getName(), System.currentTimeMillis() - start, e));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Uploads a single zip file into the channel's current directory, which is the directory of
+     * {@code remotePath}, and queues it for the Sent folder.
+     *
+     * <p>The file is written to {@code <name>.part} on the server. If a partial upload from an
+     * earlier run exists, the upload appends from the remote size instead of starting over.
+     * Once the remote size matches the local size the file is renamed to its final name.</p>
+     *
+     * <p>A file that another transfer is uploading to the same remote path is skipped, since both
+     * would append to the same {@code .part}. That transfer keeps its claim until the file is in the
+     * Sent folder, and a file that has left the Outbox by the time it is claimed is skipped too.</p>
+     */
+    private FileTransferResult uploadZip(ChannelSftp sftp, File file, String remotePath, TransferProgress progress) {
+        String claim = FileClaims.upload(ctsEndpoint(), remotePath);
+        if (!claims.tryClaim(claim)) {
+            System.out.println("Skipping " + file.getName() + ", it is being uploaded by another transfer-------------------------");
+            progress.fileDone();
+            return FileTransferResult.skipped(file.getName());
+        }
+        return uploadClaimed(sftp, file, Paths.get(remotePath).getFileName().toString(), claim, progress);
+    }
+
+    /**
+     * Uploads one Outbox file to {@code remotePath} on the CTS server the same way as {@link #uploadFile()}.
+     *
+     * <p>The file goes through {@code <name>.part}, so an attempt that was interrupted, e.g. by a
+     * restart, is resumed from the remote size, and the file is queued for the Sent folder once it is
+     * on the server. Missing parent directories are created. While another transfer uploads to the
+     * same remote path, the upload waits for it; a file that has left the Outbox by then was uploaded
+     * by that transfer and is skipped.</p>
+     *
+     * <p>A relative {@code remotePath} is resolved against {@code cts.upload.path}.</p>
+     */
+    public FileTransferResult uploadOutboxFile(File file, String remotePath, TransferProgress progress) {
+        String target = remotePath.startsWith("/") ? remotePath : ctsUploadPath + "/" + remotePath;
+        String remoteDir = Paths.get(target).getParent().toString();
+        String remoteName = Paths.get(target).getFileName().toString();
+        String claim = FileClaims.upload(ctsEndpoint(), target);
+        long start = System.currentTimeMillis();
+        progress.addTotals(1, file.length());
+        try {
+            // Claimed before a channel is borrowed, so a waiting upload does not hold one back
+            claims.claim(claim, progress);
+        } catch (CancellationException e) {
+            System.err.println("❌ Upload of " + file.getName() + " failed: " + e.getMessage());
+            progress.fileDone();
+            return FileTransferResult.failed(file.getName(), System.currentTimeMillis() - start, e);
+        }
+        SftpEndpoint endpoint = ctsEndpoint();
+        boolean handedOver = false;
+        try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+            ChannelSftp sftp = pooled.channel();
+            try {
+                metadataCache.ensureDirectory(endpoint, sftp, remoteDir);
+                sftp.cd(remoteDir);
+            } catch (SftpException e) {
+                metadataCache.invalidate(endpoint, remoteDir);
+                throw e;
+            }
+            handedOver = true;
+            FileTransferResult result = uploadClaimed(sftp, file, remoteName, claim, progress);
+            if (result.status() == FileTransferResult.Status.FAILED) {
+                // The channel may still hold replies of the aborted upload
+                pooled.invalidate();
+            }
+            return result;
+        } catch (Exception e) {
+            System.err.println("❌ Upload of " + file.getName() + " failed: " + e.getMessage());
+            return FileTransferResult.failed(file.getName(), System.currentTimeMillis() - start, e);
+        } finally {
+            if (!handedOver) {
+                claims.release(claim);
+                progress.fileDone();
             }
+        }
+    }
 
-            System.out.println("file uploaded successfully-------------------------");
+    /**
+     * Uploads {@code file} as {@code remoteName} into the channel's current directory while holding
+     * {@code claim}, and releases the claim once the file is in the Sent folder or the upload failed.
+     */
+    private FileTransferResult uploadClaimed(ChannelSftp sftp, File file, String remoteName, String claim,
+                                             TransferProgress progress) {
+        boolean archiving = false;
+        try {
+            if (!file.isFile()) {
+                // Uploaded and archived by the transfer that held the claim before
+                return FileTransferResult.skipped(file.getName());
+            }
+            FileTransferResult result;
+            try (TransferMetrics.Tracker tracker = metrics.track(host, TransferMetrics.Direction.UPLOAD, progress)) {
+                result = uploadZip(sftp, file, remoteName, tracker);
+                tracker.finish(result);
+            }
+            autoTuner.recordTransfer(host, result);
+            if (result.status() == FileTransferResult.Status.TRANSFERRED) {
+                // Archiving runs in the background so the worker can start on its next file; the claim is
+                // kept until the file has left the Outbox, so no other run uploads it again meanwhile
+                sentArchiver.archive(file.toPath(), file.getName(), result.checksums())
+                        .whenComplete((done, failure) -> claims.release(claim));
+                archiving = true;
+            }
+            return result;
+        } finally {
+            if (!archiving) {
+                claims.release(claim);
+            }
+            progress.fileDone();
+        }
+    }
+
+    private FileTransferResult uploadZip(ChannelSftp sftp, File file, String remoteName, TransferMetrics.Tracker tracker) {
+        final int BUFFER_SIZE = autoTuner.bufferSize(host);
+        String fileName = file.getName();
+        String partName = remoteName + PART_SUFFIX;
+        String localPath = file.getPath();
+        long fileSize = file.length();
+        long start = System.currentTimeMillis();
+        System.out.println("localPath:-----------------------------" + localPath);
 
+        try {
+            tracker.progress().checkCancelled();
+            long offset = remoteSize(sftp, partName);
+            if (offset > fileSize) {
+                // Leftover from a different file with the same name; start over
+                sftp.rm(partName);
+                offset = 0;
+            }
+
+            // Skipped bytes are read through the digests too, so they always cover the whole file
+            FileDigester digester = new FileDigester();
+            if (offset < fileSize || fileSize == 0) {
+                try (InputStream bis = bandwidth.throttle(bufferPool.bufferedInput(digester.inputStream(new FileInputStream(localPath)), BUFFER_SIZE),
+                        host, tracker.progress().priority())) {
+                    // RESUME skips the bytes already on the server and appends the rest
+                    sftp.put(bis, partName, new ProgressLogger(tracker, fileSize, offset),
+                            offset > 0 ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE);
+                }
+            }
 
-            return true;
+            long uploaded = remoteSize(sftp, partName);
+            if (uploaded != fileSize) {
+                throw new IOException("Remote size " + uploaded + " of " + partName + " does not match local size " + fileSize);
+            }
+            if (offset == fileSize) {
+                // An earlier run uploaded everything but did not get to promote the file
+                digester = FileDigester.of(file.toPath(), fileSize);
+            }
+            Checksums checksums = digester.checksums();
+            try {
+                checksumVerifier.verify(sftp.getSession(), sftp.pwd() + "/" + partName, checksums);
+            } catch (IOException e) {
+                sftp.rm(partName);
+                throw e;
+            }
+            promoteRemote(sftp, partName, remoteName);
+            System.out.println("Upload complete:----------------- " + fileName);
+            syncIndex.record(SyncIndex.Direction.UPLOAD, new SyncIndex.Entry(fileName, fileSize,
+                    file.lastModified(), checksums.crc32c()));
+            return FileTransferResult.transferred(fileName, fileSize - offset, System.currentTimeMillis() - start, checksums);
         } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+            System.err.println("❌ Upload of " + fileName + " failed: " + e.getMessage());
+            return FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+        }
+    }
+
+    /**
+     * Returns the size of a remote file, or {@code 0} if it does not exist.
+     */
+    private static long remoteSize(ChannelSftp sftp, String remotePath) throws SftpException {
+        try {
+            return sftp.stat(remotePath).getSize();
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return 0;
+            }
+            throw e;
         }
     }
 
+    /**
+     * Renames a fully uploaded {@code .part} file to its final name, replacing an existing file.
+     *
+     * <p>On servers that offer the {@code posix-rename@openssh.com} extension the file is replaced in
+     * one atomic step, which JSch uses for {@code rename} whenever the server advertises it. Plain SFTP
+     * rename fails if the target exists, so other servers fall back to removing the old file first;
+     * readers can briefly miss the file there, and a failure between the two steps leaves only the
+     * {@code .part}.</p>
+     */
+    static void promoteRemote(ChannelSftp sftp, String partName, String fileName) throws SftpException {
+        if (supportsPosixRename(sftp)) {
+            sftp.rename(partName, fileName);
+            return;
+        }
+        try {
+            sftp.rm(fileName);
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw e;
+            }
+        }
+        sftp.rename(partName, fileName);
+    }
+
+    private static boolean supportsPosixRename(ChannelSftp sftp) {
+        return "1".equals(sftp.getExtension("posix-rename@openssh.com"));
+    }
+
     /**
      * Downloads all zip files from a remote SFTP Server using SSH Key Authentication.
      *
-     * <p>This method establishes an SFTP connection to the specified server
-     * using a private SSH key, then downloads all zip files from the remote path
-     * and saves them to the given local directory. The connection is closed automatically
-     * once the transfer is complete
+     * <p>This method lists the remote path over a pooled SFTP channel and downloads the zip
+     * files into the given local directory while the listing is still running: every entry is
+     * queued for the download workers as soon as the server sends it, so the first download
+     * does not wait for a large Inbox to be listed completely. Files are spread across
+     * up to {@code sftp.parallelism} channels (overridable per host, see {@link SftpHostSettings}),
+     * each borrowed from the {@link SftpSessionPool} and returned to it once its file is done.
      * </p>
      *
-     * @throws JSchException  if the SSH connection or authentication fails
-     * @throws SftpException   if the download fails (e.g., file not found, no permission
-     * @throws FileNotFoundException   if the local path is invalid or cannot be written to
-     * @throws IOException   if there is an error writing the file locally
+     * <p>If the Inbox has not been modified since the last run that handled all of its files,
+     * it is not listed at all (see {@link RemoteMetadataCache}).</p>
+     *
+     * @return a per-file summary of the download; a file that fails does not stop the others
      */
-    public boolean downloadAllZips() {
+    public TransferSummary downloadAllZips() {
+        return downloadAllZips(new TransferProgress());
+    }
+
+    /**
+     * Same as {@link #downloadAllZips()}, reporting into {@code progress} and stopping when it is cancelled.
+     */
+    public TransferSummary downloadAllZips(TransferProgress progress) {
         System.out.println("ctsDownloadPath:---------------" + ctsDownloadPath);
-        System.out.println("localDownloadPath:---------------" + localDownloadPath);;
+        System.out.println("localDownloadPath:---------------" + localDownloadPath);
+        long start = System.currentTimeMillis();
+
+        // Make sure local directory exists
+        File localDir = new File(localDownloadPath);
+        if (!localDir.exists()) {
+            localDir.mkdirs();
+            System.out.println("making directories:-----------------------------");
+        }
+
+        SftpEndpoint endpoint = ctsEndpoint();
+        long inboxModified;
+        try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+            inboxModified = metadataCache.modified(endpoint, pooled.channel(), ctsDownloadPath);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return TransferSummary.failed(e, System.currentTimeMillis() - start);
+        }
+        if (metadataCache.isProcessed(endpoint, ctsDownloadPath, inboxModified)) {
+            System.out.println("Inbox unchanged since the last complete run-------------------------");
+            return TransferSummary.of(List.of(), System.currentTimeMillis() - start);
+        }
 
+        // The listing runs on its own channel and feeds the download workers as entries arrive. It keeps
+        // that channel while it waits for room in the queue, so the workers must not need it as well
+        int parallelism = hostSettings.parallelism(host, 1);
+        BlockingQueue<ListedZip> queue = new ArrayBlockingQueue<>(listingQueueSize);
+        List<FileTransferResult> skipped = new ArrayList<>();
+        AtomicReference<Exception> listingError = new AtomicReference<>();
+        AtomicLong predictedMillis = new AtomicLong(-1);
+        Thread lister = new Thread(() -> listInbox(endpoint, queue, skipped, listingError, predictedMillis, parallelism, progress),
+                "sftp-listing");
+        lister.start();
+
+        System.out.println(planner.largestFirst()
+                ? "Downloading over " + parallelism + " channels, largest files first-------------------------"
+                : "Downloading over " + parallelism + " channels while listing-------------------------");
+        List<FileTransferResult> results = new ArrayList<>();
+        List<Integer> workers = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(i);
+        }
+        try {
+            for (List<FileTransferResult> workerResults : TransferExecutor.runAll("sftp-download", parallelism, workers,
+                    worker -> downloadQueued(queue, progress))) {
+                results.addAll(workerResults);
+            }
+        } catch (RuntimeException e) {
+            // Without workers the listing would wait on the full queue forever
+            lister.interrupt();
+            throw e;
+        }
         try {
-            ChannelSftp sftp = setupSftpChannel();
+            lister.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Files left to another transfer may still fail there, so the Inbox is not marked as processed
+        boolean leftToOthers = results.stream().anyMatch(r -> r.status() == FileTransferResult.Status.SKIPPED);
+        results.addAll(skipped);
 
-            // Make sure local directory exists
-            File localDir = new File(localDownloadPath);
-            if (!localDir.exists()) {
-                localDir.mkdirs();
-                System.out.println("making directories:-----------------------------");
+        TransferSummary summary = TransferSummary.of(results, System.currentTimeMillis() - start);
+        if (predictedMillis.get() >= 0) {
+            summary = summary.withPrediction(predictedMillis.get());
+        }
+        if (listingError.get() != null) {
+            summary = summary.withError(listingError.get());
+        } else if (summary.isSuccess() && !leftToOthers && !progress.isCancelled()) {
+            metadataCache.markProcessed(endpoint, ctsDownloadPath, inboxModified);
+        }
+        System.out.println("Downloaded " + summary.transferred() + " .zip files, " + summary.failed() + " failed, "
+                + skipped.size() + " unchanged in " + summary.durationMillis() + " ms, predicted "
+                + summary.predictedMillis() + " ms-------------------------");
+        return summary;
+    }
+
+    /**
+     * A zip file found by the Inbox listing, or {@link #END} once the listing is over.
+     *
+     * @param segments        number of parallel segments to download the file in; {@code 1} for a plain download
+     * @param estimateMillis  time the download is expected to take
+     */
+    private record ListedZip(ChannelSftp.LsEntry entry, int segments, long estimateMillis) {
+        static final ListedZip END = new ListedZip(null, 0, 0);
+    }
+
+    /**
+     * Feeds the Inbox listing into {@code queue}.
+     *
+     * <p>Zip files that were already downloaded and have not changed since are added to {@code skipped}
+     * instead. Entries are queued as the server sends them, and the listing blocks while the queue is
+     * full, so a large Inbox never sits in memory at once. With {@code sftp.schedule.largest-first} they
+     * are collected in windows of {@code sftp.listing.queue-size} entries, and each window is planned by
+     * the {@link BatchPlanner} and queued longest first; the last window is queued after the listing
+     * channel is given back. The predicted completion time of the downloads is stored in
+     * {@code predictedMillis}. {@link ListedZip#END} is queued when the listing ends, also when it fails.</p>
+     */
+    private void listInbox(SftpEndpoint endpoint, BlockingQueue<ListedZip> queue, List<FileTransferResult> skipped,
+                           AtomicReference<Exception> error, AtomicLong predictedMillis, int parallelism,
+                           TransferProgress progress) {
+        List<ChannelSftp.LsEntry> window = new ArrayList<>();
+        BatchPlanner.Forecast forecast = new BatchPlanner.Forecast(parallelism);
+        try {
+            try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+                try {
+                    pooled.channel().ls(ctsDownloadPath, entry -> {
+                        if (progress.isCancelled()) {
+                            return ChannelSftp.LsEntrySelector.BREAK;
+                        }
+                        // Only process .zip files, which also skips the current and parent directories
+                        SftpATTRS attrs = entry.getAttrs();
+                        if (!entry.getFilename().toLowerCase().endsWith(".zip") || attrs.isDir()) {
+                            return ChannelSftp.LsEntrySelector.CONTINUE;
+                        }
+                        File localFile = new File(localDownloadPath, entry.getFilename());
+                        if (syncIndex.isCurrent(SyncIndex.Direction.DOWNLOAD, entry.getFilename(), attrs.getSize(), attrs.getMTime())
+                                && localFile.length() == attrs.getSize()) {
+                            skipped.add(FileTransferResult.skipped(entry.getFilename()));
+                            return ChannelSftp.LsEntrySelector.CONTINUE;
+                        }
+                        progress.addTotals(1, attrs.getSize());
+                        window.add(entry);
+                        if (planner.largestFirst() && window.size() < listingQueueSize) {
+                            return ChannelSftp.LsEntrySelector.CONTINUE;
+                        }
+                        try {
+                            queueWindow(window, queue, forecast, parallelism);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return ChannelSftp.LsEntrySelector.BREAK;
+                        }
+                        return ChannelSftp.LsEntrySelector.CONTINUE;
+                    });
+                } catch (SftpException e) {
+                    pooled.invalidate();
+                    throw e;
+                }
+            }
+            System.out.println("Listing of " + ctsDownloadPath + " complete-------------------------");
+            if (!Thread.currentThread().isInterrupted()) {
+                queueWindow(window, queue, forecast, parallelism);
+            }
+            predictedMillis.set(forecast.predictedMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Listing of " + ctsDownloadPath + " failed: " + e.getMessage());
+            error.set(e);
+        } finally {
+            putEnd(queue);
+        }
+    }
+
+    /**
+     * Plans the listed entries in {@code window}, queues them and empties the window.
+     *
+     * <p>With largest-first scheduling the window is queued longest first, and a file longer than its
+     * share of the window is split into segments, so it does not finish long after the rest.</p>
+     */
+    private void queueWindow(List<ChannelSftp.LsEntry> window, BlockingQueue<ListedZip> queue,
+                             BatchPlanner.Forecast forecast, int parallelism) throws InterruptedException {
+        long total = 0;
+        for (ChannelSftp.LsEntry entry : window) {
+            total += planner.estimateMillis(host, entry.getAttrs().getSize());
+        }
+        List<ListedZip> zips = new ArrayList<>(window.size());
+        for (ChannelSftp.LsEntry entry : window) {
+            long estimate = planner.estimateMillis(host, entry.getAttrs().getSize());
+            zips.add(listedZip(entry, planner.segmentsToBalance(estimate, total, parallelism), parallelism));
+        }
+        window.clear();
+        if (zips.size() > 1) {
+            System.out.println("Planned " + zips.size() + " downloads-------------------------");
+        }
+        for (ListedZip zip : planner.plan(zips, ListedZip::estimateMillis, parallelism).order()) {
+            forecast.add(zip.estimateMillis());
+            queue.put(zip);
+        }
+    }
+
+    private ListedZip listedZip(ChannelSftp.LsEntry entry, int atLeastSegments, int parallelism) {
+        long size = entry.getAttrs().getSize();
+        int segments = segmentedDownloader.segments(host, size, atLeastSegments);
+        return new ListedZip(entry, segments, planner.estimateMillis(host, size, Math.min(segments, parallelism)));
+    }
+
+    /**
+     * Downloads queued zip files until the listing has ended and the queue is drained.
+     */
+    private List<FileTransferResult> downloadQueued(BlockingQueue<ListedZip> queue, TransferProgress progress) {
+        List<FileTransferResult> results = new ArrayList<>();
+        try {
+            ListedZip next;
+            while ((next = queue.take()) != ListedZip.END) {
+                results.add(downloadZip(next, progress));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Leave the end marker for the other workers
+            putEnd(queue);
+        }
+        return results;
+    }
+
+    private static void putEnd(BlockingQueue<ListedZip> queue) {
+        try {
+            queue.put(ListedZip.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            // List remote files in the directory
-            Vector<ChannelSftp.LsEntry> files = sftp.ls(ctsDownloadPath);
-            System.out.println("listing files directories:-----------------------------");
-            final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * Returns the configured server an {@link UploadRequest} targets.
+     *
+     * <p>Clients only pick an endpoint by name; host, user and key file always come from the
+     * configuration, so a request cannot send data elsewhere with this server's credentials or make it
+     * load an arbitrary key file. {@code cts}, the default, is the CTS server. Any other name is read
+     * from {@code sftp.endpoint.<name>.host}, {@code .user} and {@code .private-key}, with the optional
+     * {@code .port} (default {@code 22}) and {@code .known-hosts} (default {@code known.hosts}).</p>
+     *
+     * @throws IllegalArgumentException if no endpoint of that name is configured
+     */
+    public SftpEndpoint uploadEndpoint(UploadRequest request) {
+        String name = request.getEndpoint() == null || request.getEndpoint().isBlank() ? CTS_ENDPOINT : request.getEndpoint().trim();
+        if (CTS_ENDPOINT.equals(name)) {
+            return ctsEndpoint();
+        }
+        if (!name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Invalid endpoint name: " + name);
+        }
+        String prefix = "sftp.endpoint." + name + ".";
+        Optional<String> endpointHost = config.getOptionalValue(prefix + "host", String.class);
+        Optional<String> endpointUser = config.getOptionalValue(prefix + "user", String.class);
+        Optional<String> endpointKey = config.getOptionalValue(prefix + "private-key", String.class);
+        if (endpointHost.isEmpty() || endpointUser.isEmpty() || endpointKey.isEmpty()) {
+            throw new IllegalArgumentException("Unknown endpoint: " + name);
+        }
+        return SftpEndpoint.withKey(endpointHost.get(),
+                config.getOptionalValue(prefix + "port", Integer.class).orElse(22),
+                endpointUser.get(), endpointKey.get(),
+                config.getOptionalValue(prefix + "known-hosts", String.class).orElse(knownHosts));
+    }
+
+    /**
+     * Uploads a stream, such as an HTTP request body, to {@code remotePath} without staging it on disk.
+     *
+     * <p>The stream is read through one buffer of the host's tuned size and written to
+     * {@code <remotePath>.part}, which is renamed once the stream ended; missing parent directories
+     * are created. Checksums are computed on the way. If the stream breaks off, the partial file is
+     * removed, since a stream cannot be resumed.</p>
+     *
+     * <p>A relative {@code remotePath} is resolved against {@code cts.upload.path}. While another
+     * transfer uploads to the same remote path, the upload waits for it to finish and then replaces
+     * its file.</p>
+     *
+     * @param size  expected number of bytes, or {@code -1} if unknown; a stream of a different length fails
+     */
+    public FileTransferResult uploadStream(SftpEndpoint endpoint, String remotePath, InputStream body, long size,
+                                           TransferProgress progress) {
+        final int BUFFER_SIZE = autoTuner.bufferSize(endpoint.host());
+        String target = remotePath.startsWith("/") ? remotePath : ctsUploadPath + "/" + remotePath;
+        String partName = target + PART_SUFFIX;
+        String fileName = Paths.get(target).getFileName().toString();
+        String claim = FileClaims.upload(endpoint, target);
+        long start = System.currentTimeMillis();
+        progress.addTotals(1, Math.max(0, size));
 
-            System.out.println("files-------------------------------------------: " + files);
+        try {
+            // Claimed before a channel is borrowed, so a waiting upload does not hold one back
+            claims.claim(claim, progress);
+        } catch (CancellationException e) {
+            System.err.println("❌ Streaming upload to " + target + " failed: " + e.getMessage());
+            progress.fileDone();
+            return FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+        }
+        try (TransferMetrics.Tracker tracker = metrics.track(endpoint.host(), TransferMetrics.Direction.UPLOAD, progress);
+             PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+            ChannelSftp sftp = pooled.channel();
+            FileTransferResult result;
+            try {
+                String parent = Paths.get(target).getParent() == null ? null : Paths.get(target).getParent().toString();
+                if (parent != null) {
+                    metadataCache.ensureDirectory(endpoint, sftp, parent);
+                }
+                FileDigester digester = new FileDigester();
+                try (InputStream in = bandwidth.throttle(bufferPool.bufferedInput(digester.inputStream(body), BUFFER_SIZE),
+                        endpoint.host(), progress.priority())) {
+                    sftp.put(in, partName, new ProgressLogger(tracker, size, 0), ChannelSftp.OVERWRITE);
+                }
+                progress.checkCancelled();
+                long written = sftp.stat(partName).getSize();
+                if (size >= 0 && written != size) {
+                    throw new IOException("Received " + written + " of " + size + " bytes for " + target);
+                }
+                Checksums checksums = digester.checksums();
+                checksumVerifier.verify(pooled.session(), partName, checksums);
+                promoteRemote(sftp, partName, target);
+                System.out.println("✅ Streamed " + written + " bytes to " + endpoint.host() + ":" + target);
+                result = FileTransferResult.transferred(fileName, written, System.currentTimeMillis() - start, checksums);
+            } catch (Exception e) {
+                System.err.println("❌ Streaming upload to " + target + " failed: " + e.getMessage());
+                try {
+                    sftp.rm(partName);
+                } catch (SftpException cleanupFailure) {
+                    // the channel is discarded below; a leftover .part is overwritten by the next upload
+                    pooled.invalidate();
+                }
+                if (e instanceof SftpException) {
+                    pooled.invalidate();
+                }
+                result = FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+            }
+            tracker.finish(result);
+            return result;
+        } catch (Exception e) {
+            System.err.println("❌ Streaming upload to " + target + " failed: " + e.getMessage());
+            return FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+        } finally {
+            claims.release(claim);
+            progress.fileDone();
+        }
+    }
 
-            for (ChannelSftp.LsEntry entry : files) {
-                String fileName = entry.getFilename();
+    /**
+     * Downloads a single remote file to {@code localFile}.
+     *
+     * <p>The file is written to {@code <localFile>.part}, checked against the remote size and, where the
+     * server supports it, the remote checksum, and renamed once complete, so {@code localFile} is never
+     * seen half written. A {@code .part} left by an earlier attempt is resumed instead of starting over.
+     * On a host with a parallelism above one, files of at least {@code sftp.segmented.threshold} bytes
+     * are downloaded in parallel segments instead, which cannot be resumed. Missing parent directories
+     * are created.</p>
+     *
+     * <p>While another transfer downloads to the same {@code localFile}, the download waits for it to
+     * finish. If that transfer left a file of the remote size behind, it is kept and reported as skipped.</p>
+     */
+    public FileTransferResult downloadFile(SftpEndpoint endpoint, String remotePath, Path localFile,
+                                           TransferProgress progress) {
+        final int BUFFER_SIZE = autoTuner.bufferSize(endpoint.host());
+        String fileName = localFile.getFileName().toString();
+        Path partFile = localFile.resolveSibling(fileName + PART_SUFFIX);
+        String claim = FileClaims.download(localFile);
+        long start = System.currentTimeMillis();
+        boolean waited;
+        try {
+            // Claimed before a channel is borrowed, so a waiting download does not hold one back
+            waited = claims.claim(claim, progress);
+        } catch (CancellationException e) {
+            System.err.println("❌ Download of " + remotePath + " failed: " + e.getMessage());
+            progress.fileDone();
+            return FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+        }
+        try (TransferMetrics.Tracker tracker = metrics.track(endpoint.host(), TransferMetrics.Direction.DOWNLOAD, progress)) {
+            FileTransferResult result;
+            try {
+                long size;
+                try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+                    size = pooled.channel().stat(remotePath).getSize();
+                }
+                if (waited && Files.isRegularFile(localFile) && Files.size(localFile) == size) {
+                    // Downloaded by the transfer that held the claim
+                    progress.addTotals(1, 0);
+                    result = FileTransferResult.skipped(fileName);
+                    tracker.finish(result);
+                    return result;
+                }
+                progress.addTotals(1, size);
+                if (localFile.getParent() != null) {
+                    Files.createDirectories(localFile.getParent());
+                }
+                long offset = Files.exists(partFile) ? Files.size(partFile) : 0;
+                if (offset > size) {
+                    // Leftover from a different file with the same name; start over
+                    offset = 0;
+                }
 
-                // Skip current and parent directories
-                if (fileName.equals(".") || fileName.equals("..")) {
-                    continue;
+                Checksums checksums;
+                if (offset == 0 && segmentedDownloader.appliesTo(endpoint.host(), size)) {
+                    Path segmentFile = localFile.resolveSibling(fileName + SEGMENTS_SUFFIX);
+                    segmentedDownloader.download(endpoint, remotePath, size, segmentFile, tracker);
+                    verifyDownload(segmentFile, fileName, size);
+                    // Segments arrive out of order, so the checksums cannot be computed inline
+                    checksums = FileDigester.of(segmentFile, size).checksums();
+                    Files.move(segmentFile, partFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    // The digests of the bytes we already have are computed once; new bytes are added as they arrive
+                    FileDigester digester = offset > 0 ? FileDigester.of(partFile, offset) : new FileDigester();
+                    if (offset < size || size == 0) {
+                        try (PooledSftpChannel pooled = sessionPool.borrow(endpoint);
+                             OutputStream out = bandwidth.throttle(bufferPool.bufferedOutput(digester.outputStream(
+                                     new FileOutputStream(partFile.toFile(), offset > 0)), BUFFER_SIZE), endpoint.host(), progress.priority())) {
+                            try {
+                                pooled.channel().get(remotePath, out, ProgressLogger.resumedDownload(tracker, size, offset),
+                                        offset > 0 ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE, offset);
+                            } catch (SftpException e) {
+                                pooled.invalidate();
+                                throw e;
+                            }
+                        }
+                    }
+                    // JSch ends the download quietly when the monitor cancels it; keep the .part for later
+                    progress.checkCancelled();
+                    verifyDownload(partFile, fileName, size);
+                    checksums = digester.checksums();
                 }
+                verifyRemoteChecksum(endpoint, remotePath, partFile, checksums);
+                Files.move(partFile, localFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                result = FileTransferResult.transferred(fileName, size - offset, System.currentTimeMillis() - start, checksums);
+            } catch (Exception e) {
+                // A .part that passed no check is kept and resumed by the next attempt
+                System.err.println("❌ Download of " + remotePath + " failed: " + e.getMessage());
+                result = FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+            }
+            tracker.finish(result);
+            return result;
+        } finally {
+            claims.release(claim);
+            progress.fileDone();
+        }
+    }
 
-                // Only process .zip files
-                if (fileName.toLowerCase().endsWith(".zip")) {
-                    String remoteFile = ctsDownloadPath + fileName;
-                    String localFile = localDownloadPath + File.separator + fileName;
+    /**
+     * Returns the attributes of a file in the remote Inbox, or {@code null} if there is no such file.
+     *
+     * @param fileName  name of the file in {@code cts.download.path}, without any directory
+     */
+    public SftpATTRS statInboxFile(String fileName) throws JSchException, SftpException {
+        try (PooledSftpChannel pooled = sessionPool.borrow(ctsEndpoint())) {
+            SftpATTRS attrs = pooled.channel().stat(ctsDownloadPath + fileName);
+            return attrs.isReg() ? attrs : null;
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw e;
+        }
+    }
 
-                    System.out.println("Downloading: " + remoteFile);
-//                    sftp.get(remoteFile, localFile);
-                    try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(localFile), BUFFER_SIZE)) {
-                        sftp.get(remoteFile, bos); // downloads the file into the buffered stream
+    /**
+     * Streams {@code length} bytes of a file in the remote Inbox, starting at {@code offset}, to {@code out}.
+     *
+     * <p>The bytes are read from a pooled channel and written as they arrive, so nothing is staged on
+     * the local disk. A slow reader of {@code out} blocks the writes, which stops reading from the
+     * server once JSch's outstanding requests are filled, so memory use stays at one buffer.</p>
+     *
+     * @param fileName  name of the file in {@code cts.download.path}, without any directory
+     * @throws IOException if the file cannot be read or {@code out} is closed by the client
+     */
+    public void streamInboxFile(String fileName, long offset, long length, OutputStream out, TransferProgress progress)
+            throws IOException {
+        final int BUFFER_SIZE = autoTuner.bufferSize(host);
+        String remoteFile = ctsDownloadPath + fileName;
+        long start = System.currentTimeMillis();
+        progress.addTotals(1, length);
+        try (TransferMetrics.Tracker tracker = metrics.track(host, TransferMetrics.Direction.DOWNLOAD, progress);
+             PooledSftpChannel pooled = sessionPool.borrow(ctsEndpoint());
+             BufferPool.Buffer lease = bufferPool.acquire(BUFFER_SIZE)) {
+            byte[] buffer = lease.array();
+            long remaining = length;
+            try (InputStream in = bandwidth.throttle(pooled.channel().get(remoteFile, null, offset), host, progress.priority())) {
+                while (remaining > 0) {
+                    progress.checkCancelled();
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of " + remoteFile + " at " + (offset + length - remaining));
                     }
+                    out.write(buffer, 0, n);
+                    tracker.addBytes(n);
+                    remaining -= n;
                 }
+                out.flush();
+                tracker.finish(FileTransferResult.transferred(fileName, length, System.currentTimeMillis() - start));
+            } catch (Exception e) {
+                // The channel may still have requests in flight for the abandoned stream
+                pooled.invalidate();
+                tracker.finish(FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e));
+                throw e;
             }
+        } catch (IOException e) {
+            System.err.println("❌ Streaming " + remoteFile + " failed: " + e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            System.err.println("❌ Streaming " + remoteFile + " failed: " + e.getMessage());
+            throw new IOException("Streaming " + remoteFile + " failed: " + e.getMessage(), e);
+        } finally {
+            progress.fileDone();
+        }
+    }
 
-            System.out.println("All .zip files downloaded successfully-------------------------");
+    /**
+     * Downloads a single listed zip file over its own pooled channel.
+     *
+     * <p>The file is written to {@code <name>.part} locally. If a partial download from an
+     * earlier run exists, the download continues from the local size instead of starting over.
+     * The complete file is verified (size, and zip structure) before it is moved to its final name.</p>
+     *
+     * <p>A file that another transfer is downloading to the same local file is skipped, since both
+     * would append to the same {@code .part}.</p>
+     */
+    private FileTransferResult downloadZip(ListedZip zip, TransferProgress progress) {
+        ChannelSftp.LsEntry entry = zip.entry();
+        if (progress.isCancelled()) {
+            progress.fileDone();
+            return FileTransferResult.failed(entry.getFilename(), 0, new CancellationException("Transfer cancelled"));
+        }
+        String claim = FileClaims.download(Paths.get(localDownloadPath, entry.getFilename()));
+        if (!claims.tryClaim(claim)) {
+            System.out.println("Skipping " + entry.getFilename() + ", it is being downloaded by another transfer-------------------------");
+            progress.fileDone();
+            return FileTransferResult.skipped(entry.getFilename());
+        }
+        try {
+            SftpATTRS attrs = entry.getAttrs();
+            if (syncIndex.isCurrent(SyncIndex.Direction.DOWNLOAD, entry.getFilename(), attrs.getSize(), attrs.getMTime())) {
+                // Downloaded by the transfer that held the claim since the Inbox was listed
+                return FileTransferResult.skipped(entry.getFilename());
+            }
+            try (TransferMetrics.Tracker tracker = metrics.track(host, TransferMetrics.Direction.DOWNLOAD, progress)) {
+                FileTransferResult result = downloadZip(entry, zip.segments(), tracker, System.currentTimeMillis());
+                tracker.finish(result);
+                if (zip.segments() <= 1) {
+                    // Segmented downloads use several channels at once and would overstate a single channel
+                    autoTuner.recordTransfer(host, result);
+                }
+                return result;
+            }
+        } finally {
+            claims.release(claim);
+            progress.fileDone();
+        }
+    }
 
-            sftp.disconnect();
-            sftp.getSession().disconnect();
-            return true;
+    private FileTransferResult downloadZip(ChannelSftp.LsEntry entry, int segments, TransferMetrics.Tracker tracker, long start) {
+        final int BUFFER_SIZE = autoTuner.bufferSize(host);
+        String fileName = entry.getFilename();
+        String remoteFile = ctsDownloadPath + fileName;
+        Path localFile = Paths.get(localDownloadPath, fileName);
+        Path partFile = Paths.get(localDownloadPath, fileName + PART_SUFFIX);
+        long remoteSize = entry.getAttrs().getSize();
 
+        System.out.println("Downloading: " + remoteFile);
+        try {
+            long offset = Files.exists(partFile) ? Files.size(partFile) : 0;
+            if (offset == 0 && segments > 1) {
+                // Large files are fetched as parallel byte ranges; no pooled channel may be held meanwhile
+                Path segmentFile = Paths.get(localDownloadPath, fileName + SEGMENTS_SUFFIX);
+                segmentedDownloader.download(ctsEndpoint(), remoteFile, remoteSize, segmentFile, tracker, segments);
+                verifyDownload(segmentFile, fileName, remoteSize);
+                // Segments arrive out of order, so the checksums cannot be computed inline
+                Checksums checksums = FileDigester.of(segmentFile, remoteSize).checksums();
+                verifyRemoteChecksum(ctsEndpoint(), remoteFile, segmentFile, checksums);
+                Files.move(segmentFile, localFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeSidecar(localFile, checksums);
+                syncIndex.record(SyncIndex.Direction.DOWNLOAD, new SyncIndex.Entry(fileName, remoteSize,
+                        entry.getAttrs().getMTime(), checksums.crc32c()));
+                return FileTransferResult.transferred(fileName, remoteSize, System.currentTimeMillis() - start, checksums);
+            }
         } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+            System.err.println("❌ Download of " + fileName + " failed: " + e.getMessage());
+            return FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+        }
+
+        try (PooledSftpChannel pooled = sessionPool.borrow(ctsEndpoint())) {
+            long offset = Files.exists(partFile) ? Files.size(partFile) : 0;
+            if (offset > remoteSize) {
+                // Leftover from a different file with the same name; start over
+                offset = 0;
+            }
+
+            // The digests of the bytes we already have are computed once; new bytes are added as they arrive
+            FileDigester digester = offset > 0 ? FileDigester.of(partFile, offset) : new FileDigester();
+            if (offset < remoteSize || remoteSize == 0) {
+                try (OutputStream bos = bandwidth.throttle(bufferPool.bufferedOutput(digester.outputStream(
+                        new FileOutputStream(partFile.toFile(), offset > 0)), BUFFER_SIZE), host, tracker.progress().priority())) {
+                    // downloads the file into the buffered stream, skipping the bytes we already have
+                    pooled.channel().get(remoteFile, bos, ProgressLogger.resumedDownload(tracker, remoteSize, offset),
+                            offset > 0 ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE, offset);
+                } catch (Exception e) {
+                    pooled.invalidate();
+                    throw e;
+                }
+                // JSch ends the download quietly when the monitor cancels it; keep the .part for later
+                tracker.progress().checkCancelled();
+            }
+
+            verifyDownload(partFile, fileName, remoteSize);
+            Checksums checksums = digester.checksums();
+            try {
+                checksumVerifier.verify(pooled.session(), remoteFile, checksums);
+            } catch (IOException e) {
+                Files.deleteIfExists(partFile);
+                throw e;
+            }
+            Files.move(partFile, localFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeSidecar(localFile, checksums);
+            syncIndex.record(SyncIndex.Direction.DOWNLOAD, new SyncIndex.Entry(fileName, remoteSize,
+                    entry.getAttrs().getMTime(), checksums.crc32c()));
+            return FileTransferResult.transferred(fileName, remoteSize - offset, System.currentTimeMillis() - start, checksums);
+        } catch (Exception e) {
+            System.err.println("❌ Download of " + fileName + " failed: " + e.getMessage());
+            return FileTransferResult.failed(fileName, System.currentTimeMillis() - start, e);
+        }
+    }
+
+    /**
+     * Compares a download with the server's checksum; a mismatching file is deleted.
+     */
+    private void verifyRemoteChecksum(SftpEndpoint endpoint, String remoteFile, Path localFile, Checksums checksums) throws Exception {
+        try (PooledSftpChannel pooled = sessionPool.borrow(endpoint)) {
+            checksumVerifier.verify(pooled.session(), remoteFile, checksums);
+        } catch (IOException e) {
+            Files.deleteIfExists(localFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the checksums of a downloaded file next to it; the download itself is complete either way.
+     */
+    private static void writeSidecar(Path file, Checksums checksums) {
+        try {
+            FileDigester.writeSidecar(file, checksums);
+        } catch (IOException e) {
+            System.err.println("❌ Could not write checksums of " + file + ": " + e.getMessage());
         }
     }
+
+    /**
+     * Checks a completed {@code .part} or {@code .segments} download before it is promoted to its final name.
+     *
+     * <p>The size must match the remote size, and zip files must have a readable central
+     * directory, which catches a resumed download that was stitched onto the wrong prefix.
+     * A part file that fails the check is deleted so the next run starts over.</p>
+     *
+     * @throws IOException if the file is incomplete or corrupt
+     */
+    private static void verifyDownload(Path partFile, String fileName, long expectedSize) throws IOException {
+        try {
+            long size = Files.size(partFile);
+            if (size != expectedSize) {
+                throw new IOException("Local size " + size + " of " + partFile + " does not match remote size " + expectedSize);
+            }
+            if (fileName.toLowerCase().endsWith(".zip")) {
+                checkZip(partFile);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens {@code file} as a zip archive, which reads and validates its central directory.
+     *
+     * @throws IOException if the archive is truncated or corrupt
+     */
+    private static void checkZip(Path file) throws IOException {
+        ZipFile zip = new ZipFile(file.toFile());
+        zip.close();
+    }
 }
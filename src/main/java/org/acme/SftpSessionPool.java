@@ -0,0 +1,385 @@
+package org.acme;
+
+import com.jcraft.jsch.*;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Keeps authenticated SSH sessions with an open SFTP channel alive between calls so that
+ * transfers do not pay the key exchange and authentication handshake every time.
+ *
+ * <p>Channels are pooled per {@link SftpEndpoint} (host, port, user and credentials).
+ * Each endpoint has at most {@code sftp.pool.max-per-endpoint} channels checked out or idle;
+ * further borrowers wait up to {@code sftp.pool.borrow-timeout}. Idle channels are kept
+ * alive with SSH keepalive messages and closed once they have been idle for longer than
+ * {@code sftp.pool.idle-timeout}. An endpoint left with no channels at all is dropped by the same
+ * pass, so endpoints that were used once do not stay in memory.</p>
+ *
+ * <h3>Borrow Flow:</h3>
+ * <ol>
+ *   <li>Wait for a free slot for the endpoint</li>
+ *   <li>Reuse the most recently returned idle channel if it passes the health check (pool hit)</li>
+ *   <li>Otherwise open a new session and channel (pool miss)</li>
+ * </ol>
+ */
+@ApplicationScoped
+public class SftpSessionPool {
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.max-per-endpoint", defaultValue = "8")
+    int maxPerEndpoint;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.borrow-timeout", defaultValue = "60s")
+    Duration borrowTimeout;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.idle-timeout", defaultValue = "5m")
+    Duration idleTimeout;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.keepalive-interval", defaultValue = "30s")
+    Duration keepAliveInterval;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.validate-after-idle", defaultValue = "10s")
+    Duration validateAfterIdle;
+
+    @Inject
+    @ConfigProperty(name = "sftp.pool.connect-timeout", defaultValue = "60s")
+    Duration connectTimeout;
+
+    @Inject
+    TransferMetrics metrics;
+
+    @Inject
+    SftpAutoTuner autoTuner;
+
+    private final Map<SftpEndpoint, EndpointPool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    /**
+     * Borrows a connected SFTP channel for the given endpoint.
+     *
+     * <p>The returned handle must be closed to give the channel back to the pool.</p>
+     *
+     * @param endpoint  server and credentials to connect to
+     * @return a healthy, connected channel
+     * @throws JSchException if no channel becomes available in time or a new session cannot be opened
+     */
+    public PooledSftpChannel borrow(SftpEndpoint endpoint) throws JSchException {
+        long deadline = System.nanoTime() + borrowTimeout.toNanos();
+        while (true) {
+            EndpointPool pool = pools.computeIfAbsent(endpoint, EndpointPool::new);
+            try {
+                if (!pool.permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    throw new JSchException("Timed out waiting for a pooled SFTP channel to " + endpoint);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JSchException("Interrupted while waiting for a pooled SFTP channel to " + endpoint, e);
+            }
+            if (!pool.removed) {
+                return take(endpoint, pool);
+            }
+            // Dropped by evictIdle while we were waiting; start over with a fresh pool
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Borrows a channel only if the endpoint has a free slot right now, without waiting for one.
+     *
+     * @return a healthy, connected channel, or {@code null} if all channels of the endpoint are in use
+     * @throws JSchException if a new session cannot be opened
+     */
+    public PooledSftpChannel tryBorrow(SftpEndpoint endpoint) throws JSchException {
+        while (true) {
+            EndpointPool pool = pools.computeIfAbsent(endpoint, EndpointPool::new);
+            try {
+                // A zero timeout still respects the waiting borrowers of the fair semaphore
+                if (!pool.permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (!pool.removed) {
+                return take(endpoint, pool);
+            }
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Hands out an idle or new channel for a slot that was already acquired; releases the slot on failure.
+     */
+    private PooledSftpChannel take(SftpEndpoint endpoint, EndpointPool pool) throws JSchException {
+        try {
+            PooledSftpChannel pooled;
+            while ((pooled = pool.idle.pollFirst()) != null) {
+                if (isHealthy(pooled)) {
+                    hits.incrementAndGet();
+                    // Tuning may have changed since the channel was opened
+                    pooled.channel().setBulkRequests(autoTuner.bulkRequests(endpoint.host()));
+                    pooled.touch();
+                    return pooled;
+                }
+                evicted.incrementAndGet();
+                pooled.disconnect();
+            }
+
+            misses.incrementAndGet();
+            pooled = open(pool);
+            pooled.touch();
+            return pooled;
+        } catch (JSchException | RuntimeException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    void release(PooledSftpChannel pooled) {
+        EndpointPool pool = pools.get(pooled.endpoint());
+        if (pooled.isInvalid() || !pooled.isConnected() || pool == null) {
+            invalidated.incrementAndGet();
+            pooled.disconnect();
+        } else {
+            pool.idle.offerFirst(pooled);
+        }
+        if (pool != null) {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Closes channels that have been idle for longer than {@code sftp.pool.idle-timeout}
+     * or whose session has dropped, and drops endpoints that have no channel left.
+     */
+    @Scheduled(every = "{sftp.pool.eviction-interval}", delayed = "{sftp.pool.eviction-interval}")
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeout.toMillis();
+        for (EndpointPool pool : pools.values()) {
+            Iterator<PooledSftpChannel> it = pool.idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledSftpChannel pooled = it.next();
+                if ((pooled.lastUsed() < cutoff || !pooled.isConnected()) && pool.idle.removeFirstOccurrence(pooled)) {
+                    evicted.incrementAndGet();
+                    pooled.disconnect();
+                }
+            }
+            removeIfUnused(pool);
+        }
+    }
+
+    /**
+     * Removes an endpoint's pool if none of its channels is borrowed or idle.
+     *
+     * <p>Holding every slot proves that nothing is borrowed and nobody is about to return a channel.
+     * A borrower that looked the pool up just before it was removed gets a slot once they are given
+     * back, sees that the pool was removed and starts over with a new one.</p>
+     */
+    private void removeIfUnused(EndpointPool pool) {
+        if (!pool.idle.isEmpty() || !pool.permits.tryAcquire(maxPerEndpoint)) {
+            return;
+        }
+        try {
+            if (pool.idle.isEmpty()) {
+                pool.removed = true;
+                pools.remove(pool.endpoint, pool);
+            }
+        } finally {
+            pool.permits.release(maxPerEndpoint);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (EndpointPool pool : pools.values()) {
+            PooledSftpChannel pooled;
+            while ((pooled = pool.idle.pollFirst()) != null) {
+                pooled.disconnect();
+            }
+        }
+    }
+
+    public PoolStats stats() {
+        int idle = 0;
+        int active = 0;
+        for (EndpointPool pool : pools.values()) {
+            idle += pool.idle.size();
+            active += maxPerEndpoint - pool.permits.availablePermits();
+        }
+        return new PoolStats(hits.get(), misses.get(), evicted.get(), invalidated.get(), active, idle, pools.size());
+    }
+
+    /**
+     * A channel is healthy when its session and channel are still connected. Channels that have been
+     * idle for longer than {@code sftp.pool.validate-after-idle} additionally need to answer a
+     * {@code realpath} round trip, which catches sessions silently dropped by a firewall.
+     */
+    private boolean isHealthy(PooledSftpChannel pooled) {
+        if (!pooled.isConnected()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pooled.lastUsed() < validateAfterIdle.toMillis()) {
+            return true;
+        }
+        try {
+            long start = System.nanoTime();
+            pooled.channel().realpath(".");
+            autoTuner.recordRoundTrip(pooled.endpoint().host(), System.nanoTime() - start);
+            return true;
+        } catch (SftpException e) {
+            return false;
+        }
+    }
+
+    private PooledSftpChannel open(EndpointPool pool) throws JSchException {
+        SftpEndpoint endpoint = pool.endpoint;
+
+        Session session = pool.jsch.getSession(endpoint.user(), endpoint.host(), endpoint.port());
+        if (endpoint.password() != null) {
+            session.setPassword(endpoint.password());
+        }
+        if (endpoint.knownHosts() == null) {
+            session.setConfig("StrictHostKeyChecking", "no");
+        }
+        session.setServerAliveInterval((int) keepAliveInterval.toMillis());
+        session.setServerAliveCountMax(3);
+
+        // Time the TCP connect separately so the rest of session.connect() can be attributed to key exchange and auth
+        TimedSocketFactory socketFactory = new TimedSocketFactory((int) connectTimeout.toMillis(),
+                autoTuner.socketBufferSize(endpoint.host()));
+        session.setSocketFactory(socketFactory);
+        long start = System.nanoTime();
+        try {
+            session.connect((int) connectTimeout.toMillis());
+        } catch (JSchException e) {
+            metrics.recordError(endpoint.host(), socketFactory.connectNanos < 0 ? "connect" : "auth");
+            throw e;
+        }
+        metrics.recordConnect(endpoint.host(), socketFactory.connectNanos);
+        metrics.recordAuth(endpoint.host(), System.nanoTime() - start - socketFactory.connectNanos);
+
+        try {
+            long channelStart = System.nanoTime();
+            ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
+            sftp.connect((int) connectTimeout.toMillis());
+            metrics.recordChannelOpen(endpoint.host(), System.nanoTime() - channelStart);
+            long rttStart = System.nanoTime();
+            sftp.realpath(".");
+            autoTuner.recordRoundTrip(endpoint.host(), System.nanoTime() - rttStart);
+            sftp.setBulkRequests(autoTuner.bulkRequests(endpoint.host()));
+            System.out.println("SFTP Channel opened to " + endpoint + "-------------------------");
+            return new PooledSftpChannel(this, endpoint, session, sftp);
+        } catch (JSchException | RuntimeException e) {
+            metrics.recordError(endpoint.host(), "channel");
+            session.disconnect();
+            throw e;
+        } catch (SftpException e) {
+            metrics.recordError(endpoint.host(), "channel");
+            session.disconnect();
+            throw new JSchException("SFTP channel to " + endpoint + " does not respond: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates plain sockets and remembers how long the TCP connect took.
+     */
+    private static class TimedSocketFactory implements SocketFactory {
+        private final int timeoutMillis;
+        private final int bufferSize;
+        volatile long connectNanos = -1;
+
+        /**
+         * @param bufferSize  TCP send and receive buffer size, or {@code 0} for the system default
+         */
+        TimedSocketFactory(int timeoutMillis, int bufferSize) {
+            this.timeoutMillis = timeoutMillis;
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            long start = System.nanoTime();
+            Socket socket = new Socket();
+            try {
+                if (bufferSize > 0) {
+                    // Must be set before connecting so that the TCP window scale is negotiated for it
+                    socket.setReceiveBufferSize(bufferSize);
+                    socket.setSendBufferSize(bufferSize);
+                }
+                socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            connectNanos = System.nanoTime() - start;
+            return socket;
+        }
+
+        @Override
+        public InputStream getInputStream(Socket socket) throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream(Socket socket) throws IOException {
+            return socket.getOutputStream();
+        }
+    }
+
+    /**
+     * Pool counters; {@code hits}/{@code misses} count borrows served from an idle channel
+     * versus borrows that had to open a new session.
+     */
+    public record PoolStats(long hits, long misses, long evicted, long invalidated, int active, int idle, int endpoints) {
+    }
+
+    private class EndpointPool {
+        final SftpEndpoint endpoint;
+        final JSch jsch = new JSch();
+        final Semaphore permits = new Semaphore(maxPerEndpoint, true);
+        final ConcurrentLinkedDeque<PooledSftpChannel> idle = new ConcurrentLinkedDeque<>();
+        /** Set once the pool is no longer in {@code pools}; it hands out no more channels. */
+        volatile boolean removed;
+
+        EndpointPool(SftpEndpoint endpoint) {
+            this.endpoint = endpoint;
+            try {
+                if (endpoint.privateKey() != null) {
+                    jsch.addIdentity(endpoint.privateKey());
+                }
+                if (endpoint.knownHosts() != null) {
+                    jsch.setKnownHosts(endpoint.knownHosts());
+                }
+            } catch (JSchException e) {
+                throw new IllegalStateException("Invalid credentials for " + endpoint + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.acme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connects a writer thread to a reader thread like {@link RingBufferPipe}, except that the writer
+ * never waits for the reader.
+ *
+ * <p>Bytes go to a bounded in-memory ring buffer while the reader keeps up. Once the buffer is full,
+ * further bytes are appended to a temporary spill file instead, and the reader continues with the
+ * spill file after the buffer is drained. When the reader has caught up with the spill file, the pipe
+ * switches back to memory and the file is reused from its start. Memory use is bounded by the buffer
+ * capacity; disk use by how far the reader falls behind.</p>
+ *
+ * <p>Closing the {@link #source()} or a spill file error ends the pipe for the reader only: later
+ * writes are discarded, so a writer feeding several pipes is not stopped by one of them. The writer
+ * checks {@link #isOpen()} to find out. {@link #fail(Throwable)} aborts the reader with an
+ * {@link IOException}.</p>
+ */
+public class SpillingPipe {
+
+    private final byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private int readPos;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private Throwable failure;
+
+    private Path spillFile;
+    private FileChannel spill;
+    /** Unread bytes of the spill file are {@code [spillRead, spillWrite)}; both are reset once it is drained. */
+    private long spillRead;
+    private long spillWrite;
+    private long spilledBytes;
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            SpillingPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeWriter();
+        }
+    };
+
+    private final InputStream source = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return SpillingPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeReader();
+        }
+    };
+
+    public SpillingPipe(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * The writing end of the pipe; closing it signals end of stream to the reader.
+     */
+    public OutputStream sink() {
+        return sink;
+    }
+
+    /**
+     * The reading end of the pipe; closing it discards the rest of the stream and deletes the spill file.
+     */
+    public InputStream source() {
+        return source;
+    }
+
+    /**
+     * Returns {@code true} while the reader still consumes what is written.
+     */
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return !readerClosed && failure == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Total number of bytes that went through the spill file instead of memory.
+     */
+    public long spilledBytes() {
+        lock.lock();
+        try {
+            return spilledBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Aborts the pipe; pending and future reads fail with {@code cause}.
+     */
+    public void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) {
+        lock.lock();
+        try {
+            if (readerClosed || failure != null) {
+                return;
+            }
+            // Only use memory while nothing is waiting in the spill file, so bytes stay in order
+            if (spillWrite == spillRead) {
+                while (len > 0 && count < buffer.length) {
+                    int writePos = (readPos + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                    System.arraycopy(b, off, buffer, writePos, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+            if (len > 0) {
+                spill(b, off, len);
+            }
+            notEmpty.signal();
+        } catch (IOException e) {
+            failure = e;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void spill(byte[] b, int off, int len) throws IOException {
+        if (spill == null) {
+            spillFile = Files.createTempFile("sftp-fanout-", ".spill");
+            spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        ByteBuffer data = ByteBuffer.wrap(b, off, len);
+        while (data.hasRemaining()) {
+            spillWrite += spill.write(data, spillWrite);
+        }
+        spilledBytes += len;
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (count == 0 && spillRead == spillWrite && !writerClosed && failure == null) {
+                notEmpty.await();
+            }
+            checkFailure();
+            if (count > 0) {
+                int n = Math.min(len, Math.min(count, buffer.length - readPos));
+                System.arraycopy(buffer, readPos, b, off, n);
+                readPos = (readPos + n) % buffer.length;
+                count -= n;
+                return n;
+            }
+            if (spillRead < spillWrite) {
+                int n = spill.read(ByteBuffer.wrap(b, off, (int) Math.min(len, spillWrite - spillRead)), spillRead);
+                spillRead += n;
+                if (spillRead == spillWrite) {
+                    // Caught up; go back to memory and overwrite the file from the start next time
+                    spillRead = 0;
+                    spillWrite = 0;
+                }
+                return n;
+            }
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading from fan-out buffer");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Fan-out aborted: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void closeWriter() {
+        lock.lock();
+        try {
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeReader() {
+        lock.lock();
+        try {
+            readerClosed = true;
+            count = 0;
+            if (spill != null) {
+                try {
+                    spill.close();
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    System.err.println("❌ Could not delete spill file " + spillFile + ": " + e.getMessage());
+                }
+                spill = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.acme;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Persistent record of the files that have already been transferred, so that repeated runs of
+ * {@link SftpService#downloadAllZips()} and {@link SftpService#uploadFile()} only move new or
+ * changed files.
+ *
+ * <p>Each direction is kept in its own append-only file under {@code sync.index.path}
+ * ({@code download.idx} and {@code upload.idx}) with one tab-separated line per transfer:
+ * name, size, modification time and CRC32C checksum of the local copy. The file is read into
+ * a hash map on first use, so lookups are constant time regardless of the number of entries.
+ * Later lines for the same name supersede earlier ones; when superseded lines outnumber the
+ * live entries, the file is rewritten with only the live entries.</p>
+ */
+@ApplicationScoped
+public class SyncIndex {
+
+    public enum Direction {
+        DOWNLOAD,
+        UPLOAD
+    }
+
+    /**
+     * A transferred file.
+     *
+     * @param name      file name
+     * @param size      size in bytes
+     * @param mtime     modification time; remote mtime in seconds for downloads, local mtime in milliseconds for uploads
+     * @param checksum  hex CRC32C of the local copy
+     */
+    public record Entry(String name, long size, long mtime, String checksum) {
+    }
+
+    @Inject
+    @ConfigProperty(name = "sync.index.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "sync.index.path", defaultValue = "sync-index")
+    String indexPath;
+
+    private final Map<Direction, Log> logs = new ConcurrentHashMap<>();
+
+    /**
+     * Returns {@code true} if a file with this name, size and modification time was already transferred.
+     */
+    public boolean isCurrent(Direction direction, String name, long size, long mtime) {
+        if (!enabled) {
+            return false;
+        }
+        Entry entry = log(direction).entries.get(name);
+        return entry != null && entry.size() == size && entry.mtime() == mtime;
+    }
+
+    /**
+     * Records a completed transfer, superseding any earlier entry for the same name.
+     */
+    public void record(Direction direction, Entry entry) {
+        if (!enabled || entry.name().indexOf('\t') >= 0 || entry.name().indexOf('\n') >= 0) {
+            return;
+        }
+        try {
+            log(direction).append(entry);
+        } catch (IOException e) {
+            // The index is an optimisation; losing an entry only means the file is transferred again
+            System.err.println("❌ Could not update sync index: " + e.getMessage());
+        }
+    }
+
+    private Log log(Direction direction) {
+        return logs.computeIfAbsent(direction, d -> {
+            Path file = Paths.get(indexPath, d.name().toLowerCase() + ".idx");
+            try {
+                return new Log(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load sync index " + file, e);
+            }
+        });
+    }
+
+    private static class Log {
+        final Path file;
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        long lines;
+        BufferedWriter writer;
+
+        Log(Path file) throws IOException {
+            this.file = file;
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split("\t");
+                        if (fields.length != 4) {
+                            continue; // torn write at the end of the file
+                        }
+                        entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+                        lines++;
+                    }
+                }
+            }
+        }
+
+        synchronized void append(Entry entry) throws IOException {
+            entries.put(entry.name(), entry);
+            if (lines > 2L * entries.size() + 1000) {
+                compact();
+                return;
+            }
+            if (writer == null) {
+                Files.createDirectories(file.getParent());
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(format(entry));
+            writer.flush();
+            lines++;
+        }
+
+        /**
+         * Rewrites the log with one line per live entry and atomically replaces the old file.
+         */
+        private void compact() throws IOException {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            Files.createDirectories(file.getParent());
+            Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+            try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Entry live : entries.values()) {
+                    out.write(format(live));
+                }
+            }
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = entries.size();
+        }
+
+        private static String format(Entry entry) {
+            return entry.name() + '\t' + entry.size() + '\t' + entry.mtime() + '\t' + entry.checksum() + '\n';
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.acme;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs one transfer task per item on a bounded number of threads.
+ */
+final class TransferExecutor {
+
+    private TransferExecutor() {
+    }
+
+    /**
+     * Applies {@code task} to every item using at most {@code parallelism} threads and returns the
+     * results in item order. With a parallelism of one the items run on the calling thread.
+     *
+     * @param name         prefix for the worker thread names
+     * @param parallelism  maximum number of items processed at the same time
+     * @param items        items to process
+     * @param task         transfer of a single item; must not throw
+     */
+    static <T, R> List<R> runAll(String name, int parallelism, List<T> items, Function<T, R> task) {
+        List<R> results = new ArrayList<>(items.size());
+        int threads = Math.min(parallelism, items.size());
+        if (threads <= 1) {
+            for (T item : items) {
+                results.add(task.apply(item));
+            }
+            return results;
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                r -> new Thread(r, name + "-" + counter.incrementAndGet()));
+        try {
+            List<Future<R>> futures = new ArrayList<>(items.size());
+            for (T item : items) {
+                futures.add(executor.submit(() -> task.apply(item)));
+            }
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for " + name + " tasks");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
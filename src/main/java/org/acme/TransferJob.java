@@ -0,0 +1,116 @@
+package org.acme;
+
+import java.time.Instant;
+import java.util.concurrent.Future;
+
+/**
+ * A transfer running in the background on behalf of a {@code /sftp/jobs} request.
+ */
+public class TransferJob {
+
+    public enum Type {
+        UPLOAD,
+        DOWNLOAD,
+        TRANSFER,
+        FAN_OUT,
+        SYNC
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+    private final Type type;
+    private final Instant createdAt = Instant.now();
+    private final TransferProgress progress;
+
+    private volatile State state = State.QUEUED;
+    private volatile Instant finishedAt;
+    private volatile Object result;
+    private volatile String error;
+    private volatile Future<?> future;
+
+    TransferJob(String id, Type type, BandwidthScheduler.Priority priority) {
+        this.id = id;
+        this.type = type;
+        this.progress = new TransferProgress(priority);
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public TransferProgress progress() {
+        return progress;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    Instant finishedAt() {
+        return finishedAt;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Marks the job as running unless it was cancelled while queued.
+     *
+     * @return {@code false} if the job must not start
+     */
+    synchronized boolean start() {
+        if (state != State.QUEUED) {
+            return false;
+        }
+        state = State.RUNNING;
+        return true;
+    }
+
+    synchronized void finish(boolean success, Object result, String error) {
+        if (state == State.CANCELLED) {
+            this.result = result;
+            return;
+        }
+        this.state = success ? State.SUCCEEDED : State.FAILED;
+        this.result = result;
+        this.error = error;
+        this.finishedAt = Instant.now();
+    }
+
+    /**
+     * Cancels the job; a running transfer stops at its next progress callback.
+     *
+     * @return {@code false} if the job had already finished
+     */
+    synchronized boolean cancel() {
+        if (state != State.QUEUED && state != State.RUNNING) {
+            return false;
+        }
+        state = State.CANCELLED;
+        finishedAt = Instant.now();
+        progress.cancel();
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
+    }
+
+    public Status status() {
+        return new Status(id, type, progress.priority(), state, createdAt, finishedAt, progress.snapshot(), result, error);
+    }
+
+    /**
+     * JSON view of a job returned by the {@code /sftp/jobs} endpoints.
+     */
+    public record Status(String id, Type type, BandwidthScheduler.Priority priority, State state, Instant createdAt, Instant finishedAt,
+                         TransferProgress.Snapshot progress, Object result, String error) {
+    }
+}
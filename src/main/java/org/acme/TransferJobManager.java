@@ -0,0 +1,171 @@
+package org.acme;
+
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+
+/**
+ * Runs transfers as background jobs so that REST calls return immediately with a job ID
+ * instead of holding an HTTP worker thread for the whole transfer.
+ *
+ * <p>Every job runs on its own virtual thread; at most {@code sftp.jobs.max-concurrent}
+ * jobs transfer at the same time and the rest wait in state {@code QUEUED}. Finished jobs
+ * are kept for {@code sftp.jobs.retention} so that their result can still be fetched.</p>
+ */
+@ApplicationScoped
+public class TransferJobManager {
+
+    @Inject
+    SftpService sftpService;
+
+    @Inject
+    FanOutRelay fanOutRelay;
+
+    @Inject
+    TreeSync treeSync;
+
+    @Inject
+    @ConfigProperty(name = "sftp.jobs.max-concurrent", defaultValue = "4")
+    int maxConcurrent;
+
+    @Inject
+    @ConfigProperty(name = "sftp.jobs.retention", defaultValue = "1h")
+    Duration retention;
+
+    private final Map<String, TransferJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("sftp-job-", 0).factory());
+    private Semaphore slots;
+
+    @PostConstruct
+    void init() {
+        slots = new Semaphore(Math.max(1, maxConcurrent), true);
+    }
+
+    public TransferJob submitUpload(BandwidthScheduler.Priority priority) {
+        return submit(TransferJob.Type.UPLOAD, priority, progress -> {
+            TransferSummary summary = sftpService.uploadFile(progress);
+            return new Outcome(summary.isSuccess(), summary, summary.error());
+        });
+    }
+
+    public TransferJob submitDownload(BandwidthScheduler.Priority priority) {
+        return submit(TransferJob.Type.DOWNLOAD, priority, progress -> {
+            TransferSummary summary = sftpService.downloadAllZips(progress);
+            return new Outcome(summary.isSuccess(), summary, summary.error());
+        });
+    }
+
+    public TransferJob submitTransfer(TransferRequest request, BandwidthScheduler.Priority priority) {
+        return submit(TransferJob.Type.TRANSFER, priority, progress -> {
+            boolean success = sftpService.transferFile(
+                    request.serverAHost, request.userA, request.PassA, request.remotePathA,
+                    request.serverBHost, request.userB, request.passB, request.remotePathB,
+                    progress);
+            return new Outcome(success, null, success ? null : "Transfer failed");
+        });
+    }
+
+    public TransferJob submitFanOut(FanOutRequest request, BandwidthScheduler.Priority priority) {
+        return submit(TransferJob.Type.FAN_OUT, priority, progress -> {
+            FanOutResult result = fanOutRelay.relay(request, progress);
+            return new Outcome(result.isSuccess(), result, result.isSuccess() ? null : "Fan-out failed for some destinations");
+        });
+    }
+
+    public TransferJob submitSync(TransferMetrics.Direction direction, BandwidthScheduler.Priority priority) {
+        return submit(TransferJob.Type.SYNC, priority, progress -> {
+            TransferSummary summary = direction == TransferMetrics.Direction.DOWNLOAD
+                    ? treeSync.download(progress)
+                    : treeSync.upload(progress);
+            return new Outcome(summary.isSuccess(), summary, summary.error());
+        });
+    }
+
+    public TransferJob get(String id) {
+        return jobs.get(id);
+    }
+
+    public Collection<TransferJob> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Cancels a queued or running job.
+     *
+     * @return {@code false} if the job had already finished
+     */
+    public boolean cancel(TransferJob job) {
+        return job.cancel();
+    }
+
+    /**
+     * Forgets finished jobs older than {@code sftp.jobs.retention}.
+     */
+    @Scheduled(every = "5m", delayed = "5m")
+    void purgeFinished() {
+        Instant cutoff = Instant.now().minus(retention);
+        List<String> expired = new ArrayList<>();
+        for (TransferJob job : jobs.values()) {
+            if (job.finishedAt() != null && job.finishedAt().isBefore(cutoff)) {
+                expired.add(job.id());
+            }
+        }
+        expired.forEach(jobs::remove);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobs.values().forEach(TransferJob::cancel);
+        executor.shutdownNow();
+    }
+
+    private TransferJob submit(TransferJob.Type type, BandwidthScheduler.Priority priority,
+                               Function<TransferProgress, Outcome> work) {
+        TransferJob job = new TransferJob(UUID.randomUUID().toString(), type, priority);
+        jobs.put(job.id(), job);
+        job.setFuture(executor.submit(() -> run(job, work)));
+        return job;
+    }
+
+    private void run(TransferJob job, Function<TransferProgress, Outcome> work) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            // cancelled while queued
+            return;
+        }
+        try {
+            if (!job.start()) {
+                return;
+            }
+            Outcome outcome = work.apply(job.progress());
+            job.finish(outcome.success(), outcome.result(), outcome.error());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            job.finish(false, null, String.valueOf(e.getMessage()));
+        } finally {
+            slots.release();
+        }
+    }
+
+    private record Outcome(boolean success, Object result, String error) {
+    }
+}
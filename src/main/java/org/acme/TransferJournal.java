@@ -0,0 +1,388 @@
+package org.acme;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Append-only journal of the {@link DurableTransferQueue}, so queued transfers survive a restart.
+ *
+ * <p>Each line is one tab-separated record:</p>
+ * <ul>
+ *   <li>{@code +  id  direction  priority  localPath  remotePath} when a transfer is queued</li>
+ *   <li>{@code -  id  OK|FAILED} when it is finished</li>
+ *   <li>{@code #  nextId} at the start of a compacted journal</li>
+ * </ul>
+ * <p>Replaying the journal yields the transfers that were queued but never finished. A torn line at
+ * the end, left by a crash in the middle of a write, is cut off before replaying.</p>
+ *
+ * <h3>Group commit:</h3>
+ * <p>{@link #append} returns only once its records are on disk, but callers do not sync one by one.
+ * Records are collected in memory; the first caller that finds no write in progress writes everything
+ * collected so far with a single {@code write} and {@code fsync}, while callers arriving in the
+ * meantime add to the next batch. Under load every sync commits many records. Finished records are
+ * not waited for: losing one only means the transfer is repeated after a crash, which is harmless
+ * because files are written to {@code .part} and renamed. They reach the disk with the next batch
+ * or {@link #flush()}.</p>
+ *
+ * <p>When finished records outnumber the unfinished ones, the batch writer rewrites the journal with
+ * only the unfinished transfers and atomically replaces the old file.</p>
+ */
+public class TransferJournal implements Closeable {
+
+    /**
+     * A queued transfer as recorded in the journal.
+     *
+     * @param localPath   absolute local file
+     * @param remotePath  absolute path on the CTS server
+     */
+    public record Entry(long id, TransferMetrics.Direction direction, BandwidthScheduler.Priority priority,
+                        String localPath, String remotePath) {
+    }
+
+    /**
+     * Journal usage; {@code committedRecords / commits} is the average number of records per sync.
+     */
+    public record Stats(long records, long unfinished, long commits, long committedRecords, long compactions) {
+    }
+
+    private final Path file;
+    private final boolean fsync;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    /** Unfinished transfers by id, in queue order; the content of a compacted journal. */
+    private final Map<Long, Entry> unfinished = new LinkedHashMap<>();
+    /** Records not written yet. */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    private FileChannel channel;
+    private long nextId = 1;
+    private long appendedSeq;
+    private long durableSeq;
+    private long pendingRecords;
+    private boolean writing;
+    private IOException failure;
+    /** Lines in the journal file. */
+    private long records;
+    private long commits;
+    private long committedRecords;
+    private long compactions;
+
+    /**
+     * Opens the journal, creating it if necessary, and replays it.
+     *
+     * @param fsync  whether commits are synced to disk; without it a commit only reaches the page cache
+     */
+    public TransferJournal(Path file, boolean fsync) throws IOException {
+        this.file = file;
+        this.fsync = fsync;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (Files.exists(file)) {
+            truncateTornLine();
+            replay();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Transfers that were queued and not finished, in the order they were queued.
+     */
+    public List<Entry> unfinished() {
+        lock.lock();
+        try {
+            return new ArrayList<>(unfinished.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Assigns ids to {@code transfers} and records them; returns once they are on disk.
+     *
+     * @param transfers  transfers whose {@code id} is ignored
+     * @return the transfers with their ids
+     * @throws IllegalArgumentException if a path contains a tab or a line break
+     */
+    public List<Entry> append(List<Entry> transfers) throws IOException {
+        for (Entry transfer : transfers) {
+            checkPath(transfer.localPath());
+            checkPath(transfer.remotePath());
+        }
+        List<Entry> added = new ArrayList<>(transfers.size());
+        long seq;
+        lock.lock();
+        try {
+            checkFailure();
+            for (Entry transfer : transfers) {
+                Entry entry = new Entry(nextId++, transfer.direction(), transfer.priority(),
+                        transfer.localPath(), transfer.remotePath());
+                unfinished.put(entry.id(), entry);
+                write("+\t" + entry.id() + '\t' + entry.direction() + '\t' + entry.priority() + '\t'
+                        + entry.localPath() + '\t' + entry.remotePath() + '\n');
+                added.add(entry);
+            }
+            seq = appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(seq);
+        return added;
+    }
+
+    /**
+     * Records that a transfer is finished, without waiting for the record to reach the disk.
+     */
+    public void complete(long id, boolean success) {
+        lock.lock();
+        try {
+            if (unfinished.remove(id) != null) {
+                write("-\t" + id + '\t' + (success ? "OK" : "FAILED") + '\n');
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and syncs every record collected so far.
+     */
+    public void flush() throws IOException {
+        long seq;
+        lock.lock();
+        try {
+            seq = appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(seq);
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(records, unfinished.size(), commits, committedRecords, compactions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            lock.lock();
+            try {
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(String record) {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        pending.write(bytes, 0, bytes.length);
+        pendingRecords++;
+        appendedSeq++;
+    }
+
+    /**
+     * Waits until record {@code seq} is on disk, writing the current batch if no other caller is.
+     */
+    private void awaitDurable(long seq) throws IOException {
+        lock.lock();
+        try {
+            while (durableSeq < seq) {
+                checkFailure();
+                if (writing) {
+                    committed.await();
+                } else {
+                    writeBatch();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the transfer journal");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the collected records, or a compacted journal that already contains them, with one sync.
+     * Called with the lock held; releases it while writing.
+     */
+    private void writeBatch() throws IOException {
+        writing = true;
+        long upTo = appendedSeq;
+        long batchRecords = pendingRecords;
+        byte[] batch = pending.toByteArray();
+        pending.reset();
+        pendingRecords = 0;
+        // The snapshot is taken together with the batch, so it reflects exactly the records up to upTo
+        List<Entry> snapshot = records + batchRecords > 2L * unfinished.size() + 10_000
+                ? new ArrayList<>(unfinished.values())
+                : null;
+        long snapshotNextId = nextId;
+        lock.unlock();
+        IOException error = null;
+        try {
+            if (snapshot != null) {
+                compact(snapshot, snapshotNextId);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+            writing = false;
+            if (error == null) {
+                durableSeq = upTo;
+                commits++;
+                committedRecords += batchRecords;
+                if (snapshot != null) {
+                    records = snapshot.size() + 1;
+                    compactions++;
+                } else {
+                    records += batchRecords;
+                }
+            } else {
+                // The batch is lost, so nothing later can be committed either
+                failure = error;
+                System.err.println("❌ Transfer journal " + file + " failed: " + error.getMessage());
+            }
+            committed.signalAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void compact(List<Entry> snapshot, long snapshotNextId) throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        StringBuilder content = new StringBuilder("#\t").append(snapshotNextId).append('\n');
+        for (Entry entry : snapshot) {
+            content.append("+\t").append(entry.id()).append('\t').append(entry.direction()).append('\t')
+                    .append(entry.priority()).append('\t').append(entry.localPath()).append('\t')
+                    .append(entry.remotePath()).append('\n');
+        }
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            if (fsync) {
+                out.force(false);
+            }
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (fsync) {
+            syncDirectory();
+        }
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Makes the rename of a compacted journal durable; not supported on every platform.
+     */
+    private void syncDirectory() {
+        Path dir = file.toAbsolutePath().getParent();
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // the rename still happened; it may just not survive a power loss
+        }
+    }
+
+    private void replay() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records++;
+                String[] fields = line.split("\t");
+                try {
+                    switch (fields[0]) {
+                        case "+" -> {
+                            long id = Long.parseLong(fields[1]);
+                            unfinished.put(id, new Entry(id, TransferMetrics.Direction.valueOf(fields[2]),
+                                    BandwidthScheduler.Priority.valueOf(fields[3]), fields[4], fields[5]));
+                            nextId = Math.max(nextId, id + 1);
+                        }
+                        case "-" -> unfinished.remove(Long.parseLong(fields[1]));
+                        case "#" -> nextId = Math.max(nextId, Long.parseLong(fields[1]));
+                        default -> System.err.println("❌ Skipping unknown record in " + file + ": " + line);
+                    }
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    System.err.println("❌ Skipping malformed record in " + file + ": " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts off a last line without line break, which a crash left half written.
+     */
+    private void truncateTornLine() throws IOException {
+        try (FileChannel journal = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(8192);
+            long end = journal.size();
+            while (end > 0) {
+                long start = Math.max(0, end - chunk.capacity());
+                chunk.clear().limit((int) (end - start));
+                while (chunk.hasRemaining() && journal.read(chunk, start + chunk.position()) > 0) {
+                    // read the whole chunk
+                }
+                for (int i = (int) (end - start) - 1; i >= 0; i--) {
+                    if (chunk.get(i) == '\n') {
+                        if (start + i + 1 < journal.size()) {
+                            journal.truncate(start + i + 1);
+                        }
+                        return;
+                    }
+                }
+                end = start;
+            }
+            journal.truncate(0);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Transfer journal is unusable: " + failure.getMessage(), failure);
+        }
+    }
+
+    private static void checkPath(String path) {
+        if (path == null || path.isEmpty() || path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Invalid path for the transfer queue: " + path);
+        }
+    }
+}
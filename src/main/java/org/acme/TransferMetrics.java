@@ -0,0 +1,189 @@
+package org.acme;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Micrometer instrumentation of the SFTP transfer paths, scraped by Prometheus at {@code /q/metrics}.
+ *
+ * <h3>Meters:</h3>
+ * <ul>
+ *   <li>{@code sftp.connect}, {@code sftp.auth}, {@code sftp.channel.open}: histograms of the TCP connect,
+ *       the SSH key exchange plus authentication, and opening the SFTP channel, per host</li>
+ *   <li>{@code sftp.file.transfer}: histogram of the time spent on each file, per host, direction and outcome</li>
+ *   <li>{@code sftp.bytes}: bytes moved, per host and direction</li>
+ *   <li>{@code sftp.throughput}: bytes per second over the last sampling interval, per host and direction</li>
+ *   <li>{@code sftp.files} and {@code sftp.errors}: files finished and failures, per host and direction</li>
+ *   <li>{@code sftp.transfers.in.flight}: files currently being transferred, per host and direction</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class TransferMetrics {
+
+    public enum Direction {
+        UPLOAD,
+        DOWNLOAD
+    }
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, Throughput> throughputs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public void recordConnect(String host, long nanos) {
+        histogram("sftp.connect", host).record(Duration.ofNanos(nanos));
+    }
+
+    public void recordAuth(String host, long nanos) {
+        histogram("sftp.auth", host).record(Duration.ofNanos(nanos));
+    }
+
+    public void recordChannelOpen(String host, long nanos) {
+        histogram("sftp.channel.open", host).record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Counts a failure outside of a file transfer, e.g. while connecting.
+     */
+    public void recordError(String host, String stage) {
+        registry.counter("sftp.errors", "host", host, "stage", stage).increment();
+    }
+
+    /**
+     * Starts tracking the transfer of one file; the returned tracker must be closed when the file is done.
+     *
+     * @param progress  overall progress that the file's bytes are added to
+     */
+    public Tracker track(String host, Direction direction, TransferProgress progress) {
+        return new Tracker(host, direction, progress);
+    }
+
+    /**
+     * Samples the byte counters to update the {@code sftp.throughput} gauges.
+     */
+    @Scheduled(every = "5s")
+    void sampleThroughput() {
+        long now = System.nanoTime();
+        throughputs.values().forEach(throughput -> throughput.sample(now));
+    }
+
+    private Timer histogram(String name, String host) {
+        return Timer.builder(name)
+                .tag("host", host)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static String key(String host, Direction direction) {
+        return host + '|' + direction;
+    }
+
+    /**
+     * Metrics of a single file transfer.
+     */
+    public class Tracker implements AutoCloseable {
+
+        private final String host;
+        private final Direction direction;
+        private final TransferProgress progress;
+        private final Counter bytes;
+        private final Throughput throughput;
+        private final AtomicInteger running;
+        private final long startNanos = System.nanoTime();
+        private boolean closed;
+
+        private Tracker(String host, Direction direction, TransferProgress progress) {
+            this.host = host;
+            this.direction = direction;
+            this.progress = progress;
+            String dir = direction.name().toLowerCase();
+            this.bytes = Counter.builder("sftp.bytes").baseUnit("bytes")
+                    .tag("host", host).tag("direction", dir).register(registry);
+            this.throughput = throughputs.computeIfAbsent(key(host, direction), k -> {
+                Throughput t = new Throughput();
+                Gauge.builder("sftp.throughput", t, Throughput::rate).baseUnit("bytes")
+                        .tag("host", host).tag("direction", dir).register(registry);
+                return t;
+            });
+            this.running = inFlight.computeIfAbsent(key(host, direction), k -> {
+                AtomicInteger count = new AtomicInteger();
+                Gauge.builder("sftp.transfers.in.flight", count, AtomicInteger::get)
+                        .tag("host", host).tag("direction", dir).register(registry);
+                return count;
+            });
+            running.incrementAndGet();
+        }
+
+        public Direction direction() {
+            return direction;
+        }
+
+        public TransferProgress progress() {
+            return progress;
+        }
+
+        public void addBytes(long count) {
+            bytes.increment(count);
+            throughput.total.addAndGet(count);
+            progress.addBytes(count);
+        }
+
+        /**
+         * Records the outcome of the file.
+         */
+        public void finish(FileTransferResult result) {
+            String dir = direction.name().toLowerCase();
+            String outcome = result.status().name().toLowerCase();
+            Timer.builder("sftp.file.transfer")
+                    .tag("host", host).tag("direction", dir).tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(Duration.ofNanos(System.nanoTime() - startNanos));
+            registry.counter("sftp.files", "host", host, "direction", dir, "outcome", outcome).increment();
+            if (result.status() == FileTransferResult.Status.FAILED) {
+                registry.counter("sftp.errors", "host", host, "stage", dir).increment();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Throughput {
+        final AtomicLong total = new AtomicLong();
+        long lastTotal;
+        long lastNanos = System.nanoTime();
+        volatile double rate;
+
+        synchronized void sample(long now) {
+            long current = total.get();
+            if (now > lastNanos) {
+                rate = (current - lastTotal) * 1_000_000_000.0 / (now - lastNanos);
+            }
+            lastTotal = current;
+            lastNanos = now;
+        }
+
+        double rate() {
+            return rate;
+        }
+    }
+}
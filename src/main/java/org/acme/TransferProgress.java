@@ -0,0 +1,92 @@
+package org.acme;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live progress of a transfer, shared between the threads doing the work and whoever
+ * reports on it (e.g. a {@link TransferJob}).
+ *
+ * <p>Totals are added as they become known, e.g. once a remote directory has been listed.
+ * Cancelling the progress makes the running {@link ProgressLogger}s abort their transfers
+ * and stops files that have not started yet.</p>
+ */
+public class TransferProgress {
+
+    private final BandwidthScheduler.Priority priority;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong totalFiles = new AtomicLong();
+    private volatile boolean cancelled;
+
+    public TransferProgress() {
+        this(BandwidthScheduler.Priority.NORMAL);
+    }
+
+    /**
+     * @param priority  how the transfer competes for bandwidth with concurrent transfers
+     */
+    public TransferProgress(BandwidthScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    public BandwidthScheduler.Priority priority() {
+        return priority;
+    }
+
+    public void addTotals(long fileCount, long byteCount) {
+        totalFiles.addAndGet(fileCount);
+        totalBytes.addAndGet(byteCount);
+    }
+
+    public void addBytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    public void fileDone() {
+        files.incrementAndGet();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws if the transfer was cancelled; called before starting each file.
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Transfer cancelled");
+        }
+    }
+
+    public Snapshot snapshot() {
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        long transferred = bytes.get();
+        long total = totalBytes.get();
+        double rate = transferred * 1000.0 / elapsedMillis;
+        Long etaSeconds = total > 0 && rate > 0 ? (long) (Math.max(0, total - transferred) / rate) : null;
+        return new Snapshot(transferred, total, files.get(), totalFiles.get(), (long) rate, elapsedMillis, etaSeconds);
+    }
+
+    /**
+     * Point-in-time view of the progress.
+     *
+     * @param bytes           bytes transferred so far
+     * @param totalBytes      bytes expected in total, {@code 0} while unknown
+     * @param files           files finished so far (transferred, skipped or failed)
+     * @param totalFiles      files expected in total
+     * @param bytesPerSecond  average rate since the transfer started
+     * @param elapsedMillis   time since the transfer started
+     * @param etaSeconds      estimated seconds until completion, {@code null} while unknown
+     */
+    public record Snapshot(long bytes, long totalBytes, long files, long totalFiles, long bytesPerSecond,
+                           long elapsedMillis, Long etaSeconds) {
+    }
+}
@@ -0,0 +1,55 @@
+package org.acme;
+
+import java.util.List;
+
+/**
+ * Per-file results of a batch transfer such as {@link SftpService#downloadAllZips()}.
+ *
+ * @param files           result of every file the batch attempted
+ * @param transferred     number of files transferred successfully
+ * @param failed          number of files that failed
+ * @param bytes           total bytes transferred
+ * @param durationMillis  wall-clock time of the whole batch
+ * @param error           reason the batch could not run at all or was cut short (e.g. listing failed), otherwise {@code null}
+ * @param predictedMillis time the {@link BatchPlanner} predicted for the transfers of the batch, or {@code null} if not planned
+ */
+public record TransferSummary(List<FileTransferResult> files, int transferred, int failed, long bytes,
+                              long durationMillis, String error, Long predictedMillis) {
+
+    public static TransferSummary of(List<FileTransferResult> files, long durationMillis) {
+        int transferred = 0;
+        int failed = 0;
+        long bytes = 0;
+        for (FileTransferResult file : files) {
+            bytes += file.bytes();
+            if (file.status() == FileTransferResult.Status.TRANSFERRED) {
+                transferred++;
+            } else if (file.status() == FileTransferResult.Status.FAILED) {
+                failed++;
+            }
+        }
+        return new TransferSummary(files, transferred, failed, bytes, durationMillis, null, null);
+    }
+
+    public static TransferSummary failed(Exception e, long durationMillis) {
+        return new TransferSummary(List.of(), 0, 0, 0, durationMillis, String.valueOf(e.getMessage()), null);
+    }
+
+    /**
+     * The same results, marked as cut short by {@code e}.
+     */
+    public TransferSummary withError(Exception e) {
+        return new TransferSummary(files, transferred, failed, bytes, durationMillis, String.valueOf(e.getMessage()), predictedMillis);
+    }
+
+    /**
+     * The same results with the completion time predicted by the plan of the batch.
+     */
+    public TransferSummary withPrediction(long predictedMillis) {
+        return new TransferSummary(files, transferred, failed, bytes, durationMillis, error, predictedMillis);
+    }
+
+    public boolean isSuccess() {
+        return error == null && failed == 0;
+    }
+}
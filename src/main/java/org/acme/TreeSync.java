@@ -0,0 +1,474 @@
+package org.acme;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Mirrors a whole directory tree between the CTS server and the local disk, in either direction.
+ *
+ * <p>Unlike {@link SftpService#downloadAllZips()} and {@link SftpService#uploadFile()}, which only look
+ * at the top level, the sync descends into every subdirectory and recreates the same structure on the
+ * other side. A file is transferred when the other side has no file of the same size and modification
+ * time; transferred files get the modification time of their source, so the next run skips them.
+ * Nothing is deleted on either side.</p>
+ *
+ * <h3>Process Flow:</h3>
+ * <ol>
+ *   <li>{@code sftp.sync.walkers} walker threads take directories from a shared stack, each listing one
+ *       directory at a time over a pooled channel (downloads) or from the local disk (uploads), and push
+ *       the subdirectories they find back onto the stack</li>
+ *   <li>Every file that differs goes into a queue of {@code sftp.listing.queue-size} entries; walkers
+ *       block while it is full, after they gave their channel back</li>
+ *   <li>The host's {@code sftp.parallelism} workers take files from the queue and transfer them with
+ *       {@link SftpService#downloadFile} and {@link SftpService#uploadStream}: to a {@code .part} file
+ *       that is checked and renamed when complete, and downloads resume an earlier {@code .part}</li>
+ * </ol>
+ *
+ * <p>Walking depth first keeps the stack small, and only the files waiting in the queue and the
+ * remote listing of one directory per walker are held in memory, so trees with hundreds of thousands
+ * of entries are synced without building the tree. Skipped files are counted but not listed in the
+ * {@link TransferSummary}.</p>
+ */
+@ApplicationScoped
+public class TreeSync {
+
+    @Inject
+    SftpService sftpService;
+
+    @Inject
+    SftpSessionPool sessionPool;
+
+    @Inject
+    SftpHostSettings hostSettings;
+
+    @Inject
+    SftpAutoTuner autoTuner;
+
+    @Inject
+    @ConfigProperty(name = "sftp.sync.download.remote-path")
+    String downloadRemotePath;
+
+    @Inject
+    @ConfigProperty(name = "sftp.sync.download.local-path")
+    String downloadLocalPath;
+
+    @Inject
+    @ConfigProperty(name = "sftp.sync.upload.local-path")
+    String uploadLocalPath;
+
+    @Inject
+    @ConfigProperty(name = "sftp.sync.upload.remote-path")
+    String uploadRemotePath;
+
+    @Inject
+    @ConfigProperty(name = "sftp.sync.walkers", defaultValue = "2")
+    int walkers;
+
+    @Inject
+    @ConfigProperty(name = "sftp.listing.queue-size", defaultValue = "1024")
+    int queueSize;
+
+    /**
+     * Downloads every file under {@code sftp.sync.download.remote-path} that is missing or different
+     * under {@code sftp.sync.download.local-path}.
+     */
+    public TransferSummary download(TransferProgress progress) {
+        return sync(TransferMetrics.Direction.DOWNLOAD, sftpService.ctsEndpoint(), downloadRemotePath,
+                Paths.get(downloadLocalPath), progress);
+    }
+
+    /**
+     * Uploads every file under {@code sftp.sync.upload.local-path} that is missing or different
+     * under {@code sftp.sync.upload.remote-path}.
+     */
+    public TransferSummary upload(TransferProgress progress) {
+        return sync(TransferMetrics.Direction.UPLOAD, sftpService.ctsEndpoint(), uploadRemotePath,
+                Paths.get(uploadLocalPath), progress);
+    }
+
+    /**
+     * Syncs the tree under {@code remoteRoot} on {@code endpoint} with the tree under {@code localRoot}.
+     */
+    TransferSummary sync(TransferMetrics.Direction direction, SftpEndpoint endpoint, String remoteRoot, Path localRoot,
+                         TransferProgress progress) {
+        long start = System.currentTimeMillis();
+        Walk walk = new Walk(direction, endpoint, trimSlash(remoteRoot), localRoot, progress, Math.max(1, queueSize));
+        System.out.println("Syncing " + direction.name().toLowerCase() + " between " + endpoint.host() + ":" + remoteRoot
+                + " and " + localRoot + "-------------------------");
+        try {
+            Files.createDirectories(localRoot);
+        } catch (IOException e) {
+            return TransferSummary.failed(e, System.currentTimeMillis() - start);
+        }
+
+        // Walkers feed the queue from their own threads; END is queued once the whole tree is walked
+        walk.push("");
+        int walkerCount = Math.max(1, walkers);
+        List<Integer> walkerIds = new ArrayList<>();
+        for (int i = 0; i < walkerCount; i++) {
+            walkerIds.add(i);
+        }
+        Thread walking = new Thread(() -> {
+            try {
+                TransferExecutor.runAll("sftp-walk", walkerCount, walkerIds, id -> walk(walk));
+            } catch (RuntimeException e) {
+                System.err.println("❌ Walking " + remoteRoot + " stopped: " + e.getMessage());
+            } finally {
+                putEnd(walk.files);
+            }
+        }, "sftp-walking");
+        walking.start();
+
+        int parallelism = hostSettings.parallelism(endpoint.host());
+        List<Integer> workers = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(i);
+        }
+        List<FileTransferResult> results = new ArrayList<>();
+        try {
+            for (List<FileTransferResult> workerResults : TransferExecutor.runAll("sftp-sync", parallelism, workers,
+                    worker -> transferQueued(walk))) {
+                results.addAll(workerResults);
+            }
+        } catch (RuntimeException e) {
+            // Without workers the walkers would wait on the full queue forever
+            walking.interrupt();
+            throw e;
+        }
+        try {
+            walking.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        results.addAll(walk.listingFailures);
+
+        TransferSummary summary = TransferSummary.of(results, System.currentTimeMillis() - start);
+        System.out.println("Synced " + summary.transferred() + " files, " + summary.failed() + " failed, "
+                + walk.skipped.get() + " unchanged in " + walk.directories.get() + " directories-------------------------");
+        return summary;
+    }
+
+    /**
+     * Lists directories from the stack until the whole tree is walked.
+     *
+     * <p>A walker with nothing to list waits on the stack until another walker pushes a subdirectory
+     * or the last directory is done, which puts {@link Walk#END} on the stack.</p>
+     */
+    private Void walk(Walk walk) {
+        try {
+            String dir;
+            while ((dir = walk.stack.takeLast()) != Walk.END) {
+                try {
+                    // A cancelled walk still takes its directories off the stack, so that it comes to an end
+                    if (!walk.progress.isCancelled()) {
+                        if (walk.direction == TransferMetrics.Direction.DOWNLOAD) {
+                            listRemote(walk, dir);
+                        } else {
+                            listLocal(walk, dir);
+                        }
+                        walk.directories.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (Exception e) {
+                    System.err.println("❌ Listing of " + (dir.isEmpty() ? "/" : dir) + " failed: " + e.getMessage());
+                    walk.listingFailures.add(FileTransferResult.failed(dir + "/", 0, e));
+                } finally {
+                    walk.pending.arriveAndDeregister();
+                }
+            }
+            // Leave the end marker for the other walkers
+            walk.stack.addLast(Walk.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Queues the remote files of {@code dir} that differ from their local copy and pushes its subdirectories.
+     */
+    private void listRemote(Walk walk, String dir) throws Exception {
+        // The directory is listed first and queued after the channel is back, so a walker waiting for
+        // room in the queue never holds a channel the workers need
+        List<ChannelSftp.LsEntry> entries = new ArrayList<>();
+        list(walk, dir, entry -> {
+            if (walk.progress.isCancelled()) {
+                return ChannelSftp.LsEntrySelector.BREAK;
+            }
+            if (!ignored(entry.getFilename()) && (entry.getAttrs().isDir() || entry.getAttrs().isReg())) {
+                entries.add(entry);
+            }
+            return ChannelSftp.LsEntrySelector.CONTINUE;
+        });
+        for (ChannelSftp.LsEntry entry : entries) {
+            if (walk.progress.isCancelled()) {
+                return;
+            }
+            String child = dir.isEmpty() ? entry.getFilename() : dir + "/" + entry.getFilename();
+            SftpATTRS attrs = entry.getAttrs();
+            if (attrs.isDir()) {
+                walk.push(child);
+            } else {
+                offer(walk, new SyncFile(child, attrs.getSize(), attrs.getMTime()),
+                        isSame(walk.localRoot.resolve(child), attrs.getSize(), attrs.getMTime()));
+            }
+        }
+    }
+
+    /**
+     * Queues the local files of {@code dir} that differ from their remote copy and pushes its subdirectories.
+     */
+    private void listLocal(Walk walk, String dir) throws Exception {
+        // Only this directory's remote entries are held, to compare against
+        Map<String, SftpATTRS> remote = new HashMap<>();
+        try {
+            list(walk, dir, entry -> {
+                if (!ignored(entry.getFilename()) && entry.getAttrs().isReg()) {
+                    remote.put(entry.getFilename(), entry.getAttrs());
+                }
+                return ChannelSftp.LsEntrySelector.CONTINUE;
+            });
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw e;
+            }
+            // Not there yet; every file is new and the directory is created by the first upload
+        }
+
+        Path localDir = dir.isEmpty() ? walk.localRoot : walk.localRoot.resolve(dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(localDir)) {
+            for (Path path : entries) {
+                if (walk.progress.isCancelled()) {
+                    return;
+                }
+                String name = path.getFileName().toString();
+                if (ignored(name)) {
+                    continue;
+                }
+                String child = dir.isEmpty() ? name : dir + "/" + name;
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    walk.push(child);
+                } else if (attrs.isRegularFile()) {
+                    long mtime = attrs.lastModifiedTime().to(TimeUnit.SECONDS);
+                    SftpATTRS remoteAttrs = remote.get(name);
+                    offer(walk, new SyncFile(child, attrs.size(), mtime),
+                            remoteAttrs != null && remoteAttrs.getSize() == attrs.size() && remoteAttrs.getMTime() == mtime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the remote directory {@code dir} over a pooled channel.
+     *
+     * <p>A missing or unreadable directory leaves the channel usable; after any other failure the
+     * channel is discarded, so a broken one never goes back to the pool.</p>
+     */
+    private void list(Walk walk, String dir, ChannelSftp.LsEntrySelector selector) throws Exception {
+        try (PooledSftpChannel pooled = sessionPool.borrow(walk.endpoint)) {
+            try {
+                pooled.channel().ls(walk.remote(dir), selector);
+            } catch (Exception e) {
+                if (!(e instanceof SftpException sftpError)
+                        || (sftpError.id != ChannelSftp.SSH_FX_NO_SUCH_FILE && sftpError.id != ChannelSftp.SSH_FX_PERMISSION_DENIED)) {
+                    pooled.invalidate();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void offer(Walk walk, SyncFile file, boolean same) throws InterruptedException {
+        if (same) {
+            walk.skipped.incrementAndGet();
+            return;
+        }
+        walk.files.put(file);
+    }
+
+    /**
+     * Transfers queued files until the walk has ended and the queue is drained.
+     */
+    private List<FileTransferResult> transferQueued(Walk walk) {
+        List<FileTransferResult> results = new ArrayList<>();
+        try {
+            SyncFile next;
+            while ((next = walk.files.take()) != SyncFile.END) {
+                if (walk.progress.isCancelled()) {
+                    continue;
+                }
+                results.add(transfer(walk, next));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Leave the end marker for the other workers
+            putEnd(walk.files);
+        }
+        return results;
+    }
+
+    /**
+     * Transfers one file through the single-file methods of {@link SftpService} and gives it the
+     * modification time of its source.
+     */
+    private FileTransferResult transfer(Walk walk, SyncFile file) {
+        String host = walk.endpoint.host();
+        Path localFile = walk.localRoot.resolve(file.path());
+        String remoteFile = walk.remote(file.path());
+        FileTransferResult result;
+        if (walk.direction == TransferMetrics.Direction.DOWNLOAD) {
+            result = sftpService.downloadFile(walk.endpoint, remoteFile, localFile, walk.progress);
+        } else {
+            try (InputStream in = new FileInputStream(localFile.toFile())) {
+                result = sftpService.uploadStream(walk.endpoint, remoteFile, in, file.size(), walk.progress);
+            } catch (IOException e) {
+                System.err.println("❌ Sync of " + file.path() + " failed: " + e.getMessage());
+                return FileTransferResult.failed(file.path(), 0, e);
+            }
+        }
+        if (result.status() != FileTransferResult.Status.TRANSFERRED) {
+            // Reported by its path in the tree, not just its name
+            return new FileTransferResult(file.path(), result.status(), result.bytes(), result.durationMillis(),
+                    result.error(), result.checksums());
+        }
+        try {
+            // Without the source's modification time the next run would transfer the file again
+            if (walk.direction == TransferMetrics.Direction.DOWNLOAD) {
+                Files.setLastModifiedTime(localFile, FileTime.from(file.mtime(), TimeUnit.SECONDS));
+            } else {
+                try (PooledSftpChannel pooled = sessionPool.borrow(walk.endpoint)) {
+                    pooled.channel().setMtime(remoteFile, (int) file.mtime());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Could not set the modification time of " + file.path() + ": " + e.getMessage());
+        }
+        autoTuner.recordTransfer(host, result);
+        return new FileTransferResult(file.path(), result.status(), result.bytes(), result.durationMillis(),
+                result.error(), result.checksums());
+    }
+
+    /**
+     * Names that are never synced: the directory itself, its parent and unfinished transfers.
+     */
+    private static boolean ignored(String name) {
+        return name.equals(".") || name.equals("..")
+                || name.endsWith(SftpService.PART_SUFFIX) || name.endsWith(SftpService.SEGMENTS_SUFFIX);
+    }
+
+    private static boolean isSame(Path localFile, long size, long mtime) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(localFile, BasicFileAttributes.class);
+            return attrs.isRegularFile() && attrs.size() == size && attrs.lastModifiedTime().to(TimeUnit.SECONDS) == mtime;
+        } catch (IOException e) {
+            // missing locally
+            return false;
+        }
+    }
+
+    private static String trimSlash(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static void putEnd(BlockingQueue<SyncFile> queue) {
+        try {
+            queue.put(SyncFile.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A file that differs, by its path relative to the roots, or {@link #END} once the walk is over.
+     */
+    private record SyncFile(String path, long size, long mtime) {
+        static final SyncFile END = new SyncFile(null, 0, 0);
+    }
+
+    /**
+     * State of one sync shared by its walkers and workers.
+     */
+    private static class Walk {
+        final TransferMetrics.Direction direction;
+        final SftpEndpoint endpoint;
+        final String remoteRoot;
+        final Path localRoot;
+        final TransferProgress progress;
+        final BlockingQueue<SyncFile> files;
+        /** Marks the end of the walk on the stack. */
+        static final String END = new String("END");
+
+        /** Directories still to list, relative to the roots; used as a stack so the walk goes depth first. */
+        final BlockingDeque<String> stack = new LinkedBlockingDeque<>();
+        /**
+         * One registered party per directory on the stack or being listed. Once the last one is done
+         * the phaser advances, and the walk is over.
+         */
+        final Phaser pending = new Phaser() {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                stack.addLast(END);
+                return true;
+            }
+        };
+        final AtomicLong directories = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final Queue<FileTransferResult> listingFailures = new ConcurrentLinkedQueue<>();
+
+        Walk(TransferMetrics.Direction direction, SftpEndpoint endpoint, String remoteRoot, Path localRoot,
+             TransferProgress progress, int queueSize) {
+            this.direction = direction;
+            this.endpoint = endpoint;
+            this.remoteRoot = remoteRoot;
+            this.localRoot = localRoot;
+            this.progress = progress;
+            this.files = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        void push(String dir) {
+            // Registered before it is visible, so the parties never drop to zero while work remains
+            pending.register();
+            stack.addLast(dir);
+        }
+
+        String remote(String relative) {
+            if (relative.isEmpty()) {
+                return remoteRoot;
+            }
+            return remoteRoot.endsWith("/") ? remoteRoot + relative : remoteRoot + "/" + relative;
+        }
+    }
+}
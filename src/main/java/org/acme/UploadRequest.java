@@ -1,9 +1,19 @@
 package org.acme;
 
+import jakarta.ws.rs.QueryParam;
+
+/**
+ * Target of an upload. {@code POST /sftp/upload-stream} binds only {@code endpoint}, the name of a
+ * configured server (see {@link SftpService#uploadEndpoint(UploadRequest)}), and {@code remotePath}
+ * from its query parameters; host, user and key files are never taken from a request.
+ */
 public class UploadRequest {
+    @QueryParam("endpoint")
+    String endpoint;
     String host;
     String user;
     String privateKey;
+    @QueryParam("remotePath")
     String remotePath;
     String localFile;
     int port;
@@ -13,7 +23,8 @@ public class UploadRequest {
     @Override
     public String toString() {
         return "UploadRequest{" +
-                "host='" + host + '\'' +
+                "endpoint='" + endpoint + '\'' +
+                ", host='" + host + '\'' +
                 ", user='" + user + '\'' +
                 ", privateKey='" + privateKey + '\'' +
                 ", remotePath='" + remotePath + '\'' +
@@ -23,6 +34,14 @@ public class UploadRequest {
                 '}';
     }
 
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
     public String getKnownHosts() {
         return knownHosts;
     }
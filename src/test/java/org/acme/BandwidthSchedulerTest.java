@@ -0,0 +1,112 @@
+package org.acme;
+
+import io.smallrye.config.SmallRyeConfigBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandwidthSchedulerTest {
+
+    static final long RATE = 256 * 1024;
+
+    @Test
+    void streamsAreNotWrappedWithoutLimits() {
+        BandwidthScheduler scheduler = scheduler(0, 0);
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        OutputStream out = new ByteArrayOutputStream();
+
+        assertSame(in, scheduler.throttle(in, "host", BandwidthScheduler.Priority.NORMAL));
+        assertSame(out, scheduler.throttle(out, "host", BandwidthScheduler.Priority.NORMAL));
+    }
+
+    @Test
+    void hostLimitHoldsWritesToTheRate() throws IOException {
+        BandwidthScheduler scheduler = scheduler(RATE, 0);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        byte[] data = new byte[(int) (RATE + RATE / 4)];
+
+        long start = System.nanoTime();
+        try (OutputStream out = scheduler.throttle(target, "host", BandwidthScheduler.Priority.NORMAL)) {
+            writeInChunks(out, data);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The first quarter second of traffic is the burst allowance; the rest takes about a second
+        assertTrue(millis >= 800, "took only " + millis + " ms");
+        assertTrue(millis < 5000, "took " + millis + " ms");
+        assertArrayEquals(data, target.toByteArray());
+    }
+
+    @Test
+    void totalLimitAppliesToReads() throws IOException {
+        BandwidthScheduler scheduler = scheduler(0, RATE);
+        byte[] data = new byte[(int) (RATE + RATE / 4)];
+
+        long start = System.nanoTime();
+        try (InputStream in = scheduler.throttle(new ByteArrayInputStream(data), "host", BandwidthScheduler.Priority.NORMAL)) {
+            assertEquals(data.length, in.readAllBytes().length);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 800);
+    }
+
+    @Test
+    void urgentTransfersGoFirst() throws Exception {
+        BandwidthScheduler scheduler = scheduler(RATE, 0);
+        byte[] data = new byte[(int) RATE / 2];
+
+        CompletableFuture<Long> bulk = CompletableFuture.supplyAsync(() -> timedWrite(scheduler, data, BandwidthScheduler.Priority.BULK));
+        // Let the bulk transfer use up the burst allowance and start waiting
+        Thread.sleep(100);
+        CompletableFuture<Long> urgent = CompletableFuture.supplyAsync(() -> timedWrite(scheduler, data, BandwidthScheduler.Priority.URGENT));
+
+        long urgentDone = urgent.get(30, TimeUnit.SECONDS);
+        long bulkDone = bulk.get(30, TimeUnit.SECONDS);
+        assertTrue(urgentDone < bulkDone, "urgent finished at " + urgentDone + ", bulk at " + bulkDone);
+    }
+
+    @Test
+    void priorityIsParsedCaseInsensitively() {
+        assertEquals(BandwidthScheduler.Priority.BULK, BandwidthScheduler.Priority.fromString(" bulk "));
+        assertEquals(BandwidthScheduler.Priority.NORMAL, BandwidthScheduler.Priority.fromString(null));
+        assertEquals(BandwidthScheduler.Priority.NORMAL, BandwidthScheduler.Priority.fromString(""));
+    }
+
+    private static long timedWrite(BandwidthScheduler scheduler, byte[] data, BandwidthScheduler.Priority priority) {
+        try (OutputStream out = scheduler.throttle(new ByteArrayOutputStream(), "host", priority)) {
+            writeInChunks(out, data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return System.nanoTime();
+    }
+
+    private static void writeInChunks(OutputStream out, byte[] data) throws IOException {
+        for (int off = 0; off < data.length; off += 16 * 1024) {
+            out.write(data, off, Math.min(16 * 1024, data.length - off));
+        }
+    }
+
+    private static BandwidthScheduler scheduler(long perHost, long total) {
+        SftpHostSettings hostSettings = new SftpHostSettings();
+        hostSettings.config = new SmallRyeConfigBuilder().build();
+        hostSettings.defaultParallelism = 1;
+        hostSettings.maxPerEndpoint = 8;
+        hostSettings.defaultBandwidth = perHost;
+
+        BandwidthScheduler scheduler = new BandwidthScheduler();
+        scheduler.hostSettings = hostSettings;
+        scheduler.totalBytesPerSecond = total;
+        return scheduler;
+    }
+}
@@ -0,0 +1,117 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchPlannerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void largestFileGoesFirst() {
+        List<Long> batch = twelveSmallFilesAndOneLarge();
+
+        BatchPlanner.Plan<Long> plan = planner(true).plan(batch, Long::longValue, 4);
+
+        assertEquals(100L, plan.order().get(0));
+        // The large file runs while the other three channels work through the small ones
+        assertEquals(100, plan.predictedMillis());
+    }
+
+    @Test
+    void listingOrderIsKeptWithoutLargestFirst() {
+        List<Long> batch = twelveSmallFilesAndOneLarge();
+
+        BatchPlanner.Plan<Long> plan = planner(false).plan(batch, Long::longValue, 4);
+
+        assertEquals(batch, plan.order());
+        // Started last, the large file keeps one channel busy long after the others are idle
+        assertEquals(130, plan.predictedMillis());
+    }
+
+    @Test
+    void equalFilesKeepTheirListingOrder() {
+        List<String> batch = List.of("a", "bb", "c", "dd", "e");
+
+        BatchPlanner.Plan<String> plan = planner(true).plan(batch, String::length, 2);
+
+        assertEquals(List.of("bb", "dd", "a", "c", "e"), plan.order());
+        assertEquals(4, plan.predictedMillis());
+    }
+
+    @Test
+    void forecastMatchesThePlan() {
+        BatchPlanner.Forecast forecast = new BatchPlanner.Forecast(4);
+        forecast.add(100);
+        for (int i = 0; i < 12; i++) {
+            forecast.add(10);
+        }
+        assertEquals(100, forecast.predictedMillis());
+
+        BatchPlanner.Forecast single = new BatchPlanner.Forecast(0);
+        single.add(10);
+        single.add(20);
+        assertEquals(30, single.predictedMillis());
+    }
+
+    @Test
+    void segmentsOnlyFilesThatOutlastTheirShare() {
+        BatchPlanner planner = planner(true);
+
+        // A share of 220 ms on 4 channels is 55 ms, so a 100 ms file is split in two
+        assertEquals(2, planner.segmentsToBalance(100, 220, 4));
+        assertEquals(1, planner.segmentsToBalance(50, 220, 4));
+        assertEquals(4, planner.segmentsToBalance(1000, 1000, 4));
+        assertEquals(1, planner.segmentsToBalance(100, 220, 1));
+        assertEquals(1, planner(false).segmentsToBalance(100, 220, 4));
+    }
+
+    @Test
+    void partitionBalancesTheGroups() {
+        List<Long> items = List.of(7L, 5L, 4L, 3L, 1L);
+
+        assertEquals(List.of(List.of(7L, 3L), List.of(5L, 4L, 1L)),
+                planner(true).partition(items, Long::longValue, 2));
+        assertEquals(List.of(List.of(7L, 5L, 4L), List.of(3L, 1L)),
+                planner(false).partition(items, Long::longValue, 2));
+        assertEquals(1, planner(true).partition(List.of(1L), Long::longValue, 4).size());
+    }
+
+    @Test
+    void estimatesUseTheDefaultThroughputUntilMeasured() {
+        BatchPlanner planner = planner(true);
+
+        assertEquals(5000, planner.estimateMillis("host", 5000));
+        assertEquals(2500, planner.estimateMillis("host", 5000, 2));
+    }
+
+    private static List<Long> twelveSmallFilesAndOneLarge() {
+        List<Long> batch = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            batch.add(10L);
+        }
+        batch.add(100L);
+        return batch;
+    }
+
+    /**
+     * A planner without measurements that assumes 1000 bytes per second, so one byte takes one millisecond.
+     */
+    private BatchPlanner planner(boolean largestFirst) {
+        SftpAutoTuner autoTuner = new SftpAutoTuner();
+        autoTuner.tuningPath = dir.resolve("tuning.properties").toString();
+
+        BatchPlanner planner = new BatchPlanner();
+        planner.autoTuner = autoTuner;
+        planner.largestFirst = largestFirst;
+        planner.defaultThroughput = 1000;
+        return planner;
+    }
+}
@@ -0,0 +1,133 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BufferPoolTest {
+
+    static final int KB = 1024;
+
+    @Test
+    void releasedBuffersAreReused() throws Exception {
+        BufferPool pool = pool(64 * KB, 4 * KB);
+        byte[] first;
+        try (BufferPool.Buffer buffer = pool.acquire(16 * KB)) {
+            first = buffer.array();
+            assertEquals(16 * KB, first.length);
+        }
+        try (BufferPool.Buffer buffer = pool.acquire(16 * KB)) {
+            assertSame(first, buffer.array());
+        }
+
+        BufferPool.Stats stats = pool.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(16 * KB, stats.allocated());
+        assertEquals(0, stats.leased());
+    }
+
+    @Test
+    void sizesAreRoundedDownToAPowerOfTwo() throws Exception {
+        BufferPool pool = pool(64 * KB, 4 * KB);
+        try (BufferPool.Buffer buffer = pool.acquire(20 * KB)) {
+            assertEquals(16 * KB, buffer.array().length);
+        }
+        try (BufferPool.Buffer buffer = pool.acquire(100)) {
+            assertEquals(4 * KB, buffer.array().length);
+        }
+    }
+
+    @Test
+    void shrinksWhenTheBudgetIsExhausted() throws Exception {
+        BufferPool pool = pool(64 * KB, 4 * KB);
+        try (BufferPool.Buffer first = pool.acquire(32 * KB);
+             BufferPool.Buffer second = pool.acquire(16 * KB);
+             // 48 KB are leased, so the largest size that still fits is 16 KB
+             BufferPool.Buffer third = pool.acquire(32 * KB)) {
+            assertEquals(32 * KB, first.array().length);
+            assertEquals(16 * KB, second.array().length);
+            assertEquals(16 * KB, third.array().length);
+        }
+
+        BufferPool.Stats stats = pool.stats();
+        assertEquals(1, stats.shrunk());
+        assertEquals(0, stats.waits());
+        assertEquals(64 * KB, stats.allocated());
+    }
+
+    @Test
+    void waitsUntilABufferIsReleased() throws Exception {
+        BufferPool pool = pool(16 * KB, 8 * KB);
+        BufferPool.Buffer first = pool.acquire(8 * KB);
+        BufferPool.Buffer second = pool.acquire(8 * KB);
+
+        CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> {
+            try (BufferPool.Buffer buffer = pool.acquire(8 * KB)) {
+                return buffer.array().length;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(waiting.isDone(), "lease should wait for the budget");
+
+        first.close();
+        assertEquals(8 * KB, waiting.get(10, TimeUnit.SECONDS));
+        second.close();
+        assertEquals(1, pool.stats().waits());
+        assertEquals(16 * KB, pool.stats().allocated());
+    }
+
+    @Test
+    void idleBuffersOfOtherSizesMakeRoom() throws Exception {
+        BufferPool pool = pool(32 * KB, 4 * KB);
+        pool.acquire(32 * KB).close();
+
+        try (BufferPool.Buffer buffer = pool.acquire(8 * KB)) {
+            assertEquals(8 * KB, buffer.array().length);
+        }
+        BufferPool.Stats stats = pool.stats();
+        assertEquals(8 * KB, stats.allocated());
+        assertEquals(0, stats.shrunk());
+    }
+
+    @Test
+    void streamsReturnTheirBufferWhenClosed() throws Exception {
+        BufferPool pool = pool(64 * KB, 4 * KB);
+        byte[] data = new byte[50_000];
+        new Random(5).nextBytes(data);
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (InputStream in = pool.bufferedInput(new ByteArrayInputStream(data), 8 * KB);
+             OutputStream out = pool.bufferedOutput(target, 8 * KB)) {
+            assertEquals(16 * KB, pool.stats().leased());
+            byte[] chunk = new byte[1000];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                out.write(chunk, 0, n);
+            }
+        }
+
+        assertArrayEquals(data, target.toByteArray());
+        assertEquals(0, pool.stats().leased());
+    }
+
+    private static BufferPool pool(long budget, int minSize) {
+        BufferPool pool = new BufferPool();
+        pool.budget = budget;
+        pool.minSize = minSize;
+        return pool;
+    }
+}
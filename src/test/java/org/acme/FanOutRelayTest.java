@@ -0,0 +1,97 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FanOutRelayTest {
+
+    @Test
+    void slowDestinationSpillsWhileTheOthersKeepGoing() throws Exception {
+        byte[] data = new byte[1_000_000];
+        new Random(11).nextBytes(data);
+        SpillingPipe fast1 = new SpillingPipe(64 * 1024);
+        SpillingPipe fast2 = new SpillingPipe(64 * 1024);
+        SpillingPipe slow = new SpillingPipe(64 * 1024);
+
+        CompletableFuture<byte[]> reader1 = readAsync(fast1);
+        CompletableFuture<byte[]> reader2 = readAsync(fast2);
+        CountDownLatch stalled = new CountDownLatch(1);
+        CompletableFuture<byte[]> slowReader = CompletableFuture.supplyAsync(() -> {
+            try {
+                stalled.await();
+                try (InputStream in = slow.source()) {
+                    return in.readAllBytes();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        try (OutputStream out = new FanOutRelay.FanOutStream(List.of(fast1, fast2, slow), new TransferProgress())) {
+            for (int off = 0; off < data.length; off += 32 * 1024) {
+                out.write(data, off, Math.min(32 * 1024, data.length - off));
+            }
+        }
+
+        // The fast destinations have the whole file before the slow one has read a single byte
+        assertArrayEquals(data, reader1.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(data, reader2.get(10, TimeUnit.SECONDS));
+        assertEquals(data.length - 64 * 1024, slow.spilledBytes());
+
+        stalled.countDown();
+        assertArrayEquals(data, slowReader.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void closedDestinationIsSkipped() throws Exception {
+        SpillingPipe open = new SpillingPipe(16);
+        SpillingPipe closed = new SpillingPipe(16);
+        closed.source().close();
+
+        try (OutputStream out = new FanOutRelay.FanOutStream(List.of(open, closed), new TransferProgress())) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, open.source().readAllBytes());
+    }
+
+    @Test
+    void failsWhenNoDestinationIsLeft() throws IOException {
+        SpillingPipe pipe = new SpillingPipe(16);
+        pipe.fail(new IOException("upload failed"));
+
+        OutputStream out = new FanOutRelay.FanOutStream(List.of(pipe), new TransferProgress());
+        assertThrows(IOException.class, () -> out.write(new byte[]{1}));
+    }
+
+    @Test
+    void cancellingStopsTheSource() {
+        TransferProgress progress = new TransferProgress();
+        OutputStream out = new FanOutRelay.FanOutStream(List.of(new SpillingPipe(16)), progress);
+        progress.cancel();
+        assertThrows(CancellationException.class, () -> out.write(new byte[]{1}));
+    }
+
+    private static CompletableFuture<byte[]> readAsync(SpillingPipe pipe) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = pipe.source()) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileClaimsTest {
+
+    static final SftpEndpoint CTS = SftpEndpoint.withPassword("cts.example", 22, "user", "secret");
+
+    @Test
+    void aClaimedFileCannotBeClaimedAgainUntilReleased() {
+        FileClaims claims = new FileClaims();
+        String claim = FileClaims.upload(CTS, "/Outbox/MX/MX_1.zip");
+
+        assertTrue(claims.tryClaim(claim));
+        assertFalse(claims.tryClaim(claim));
+        assertFalse(claims.tryClaim(FileClaims.upload(CTS, "/Outbox//MX/./MX_1.zip")));
+        assertTrue(claims.tryClaim(FileClaims.upload(CTS, "/Outbox/MX/MX_2.zip")));
+        assertTrue(claims.tryClaim(FileClaims.upload(SftpEndpoint.withPassword("backup.example", 22, "user", "secret"),
+                "/Outbox/MX/MX_1.zip")));
+
+        claims.release(claim);
+        assertTrue(claims.tryClaim(claim));
+    }
+
+    @Test
+    void uploadsAndDownloadsOfTheSamePathAreDifferentClaims() {
+        FileClaims claims = new FileClaims();
+
+        assertTrue(claims.tryClaim(FileClaims.upload(CTS, "/data/MX_1.zip")));
+        assertTrue(claims.tryClaim(FileClaims.download(Paths.get("/data/MX_1.zip"))));
+    }
+
+    @Test
+    void claimWaitsForTheRelease() throws Exception {
+        FileClaims claims = new FileClaims();
+        String claim = FileClaims.download(Paths.get("Inbox", "MX_1.zip"));
+        assertFalse(claims.claim(claim, new TransferProgress()));
+
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> claims.claim(claim, new TransferProgress()));
+        assertThrows(TimeoutException.class, () -> waiter.get(200, TimeUnit.MILLISECONDS));
+
+        claims.release(claim);
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertFalse(claims.tryClaim(claim));
+    }
+
+    @Test
+    void cancellingStopsTheWait() throws Exception {
+        FileClaims claims = new FileClaims();
+        String claim = FileClaims.download(Paths.get("Inbox", "MX_1.zip"));
+        assertTrue(claims.tryClaim(claim));
+
+        TransferProgress progress = new TransferProgress();
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> claims.claim(claim, progress));
+        progress.cancel();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, e.getCause());
+        claims.release(claim);
+        assertTrue(claims.tryClaim(claim));
+    }
+}
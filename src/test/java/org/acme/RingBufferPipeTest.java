@@ -0,0 +1,92 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferPipeTest {
+
+    @Test
+    void relaysMoreThanTheCapacityInOrder() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        RingBufferPipe pipe = new RingBufferPipe(1024);
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try (OutputStream out = pipe.sink()) {
+                // Odd chunk sizes so writes wrap around the end of the buffer
+                for (int off = 0; off < data.length; off += 777) {
+                    out.write(data, off, Math.min(777, data.length - off));
+                }
+            } catch (IOException e) {
+                pipe.fail(e);
+            }
+        });
+
+        byte[] received = pipe.source().readAllBytes();
+        writer.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    void writerBlocksWhileTheBufferIsFull() throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try (OutputStream out = pipe.sink()) {
+                out.write(new byte[48]);
+            } catch (IOException e) {
+                pipe.fail(e);
+            }
+        });
+
+        Thread.sleep(200);
+        assertFalse(writer.isDone(), "writer should wait for the reader");
+        assertEquals(16, pipe.source().available());
+
+        assertEquals(48, pipe.source().readAllBytes().length);
+        writer.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void failWakesUpABlockedReader() throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        InputStream in = pipe.source();
+        CompletableFuture<IOException> reader = CompletableFuture.supplyAsync(() ->
+                assertThrows(IOException.class, in::read));
+
+        Thread.sleep(100);
+        pipe.fail(new IOException("source lost"));
+
+        IOException error = reader.get(10, TimeUnit.SECONDS);
+        assertTrue(error.getMessage().contains("source lost"));
+    }
+
+    @Test
+    void writeFailsOnceTheReaderIsClosed() throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        pipe.source().close();
+        assertThrows(IOException.class, () -> pipe.sink().write(new byte[32]));
+    }
+
+    @Test
+    void readReturnsEndOfStreamAfterTheWriterClosed() throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        pipe.sink().write(new byte[]{1, 2, 3});
+        pipe.sink().close();
+
+        InputStream in = pipe.source();
+        assertArrayEquals(new byte[]{1, 2, 3}, in.readNBytes(3));
+        assertEquals(-1, in.read());
+    }
+}
@@ -0,0 +1,74 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillingPipeTest {
+
+    @Test
+    void writerDoesNotWaitForASlowReader() throws IOException {
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+        SpillingPipe pipe = new SpillingPipe(1024);
+
+        // Nothing reads while writing, so everything beyond the buffer goes to the spill file
+        try (OutputStream out = pipe.sink()) {
+            for (int off = 0; off < data.length; off += 777) {
+                out.write(data, off, Math.min(777, data.length - off));
+            }
+        }
+
+        assertEquals(data.length - 1024, pipe.spilledBytes());
+        try (InputStream in = pipe.source()) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void switchesBackToMemoryOnceTheSpillFileIsDrained() throws IOException {
+        SpillingPipe pipe = new SpillingPipe(4);
+        OutputStream out = pipe.sink();
+        InputStream in = pipe.source();
+
+        out.write(new byte[]{1, 2, 3, 4, 5, 6});
+        assertEquals(2, pipe.spilledBytes());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, in.readNBytes(6));
+
+        out.write(new byte[]{7, 8});
+        out.close();
+        assertEquals(2, pipe.spilledBytes());
+        assertArrayEquals(new byte[]{7, 8}, in.readAllBytes());
+    }
+
+    @Test
+    void writesAreDiscardedOnceTheReaderIsClosed() throws IOException {
+        SpillingPipe pipe = new SpillingPipe(4);
+        pipe.sink().write(new byte[16]);
+        pipe.source().close();
+
+        assertFalse(pipe.isOpen());
+        pipe.sink().write(new byte[16]);
+        assertEquals(12, pipe.spilledBytes());
+    }
+
+    @Test
+    void failAbortsTheReader() throws IOException {
+        SpillingPipe pipe = new SpillingPipe(16);
+        pipe.sink().write(new byte[]{1});
+        pipe.fail(new IOException("source lost"));
+
+        assertFalse(pipe.isOpen());
+        IOException error = assertThrows(IOException.class, () -> pipe.source().read());
+        assertTrue(error.getMessage().contains("source lost"));
+    }
+}
@@ -0,0 +1,165 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysUnfinishedTransfersAfterReopening() throws IOException {
+        Path file = dir.resolve("queue/journal");
+        List<TransferJournal.Entry> added;
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            added = journal.append(List.of(entry("a"), entry("b"), entry("c")));
+            journal.complete(added.get(0).id(), true);
+            journal.complete(added.get(2).id(), false);
+        }
+
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            assertEquals(List.of(added.get(1)), journal.unfinished());
+            // Ids keep growing across restarts
+            long next = journal.append(List.of(entry("d"))).get(0).id();
+            assertTrue(next > added.get(2).id());
+        }
+    }
+
+    @Test
+    void finishedRecordsGoOutWithTheNextCommit() throws IOException {
+        try (TransferJournal journal = new TransferJournal(dir.resolve("journal"), true)) {
+            TransferJournal.Entry first = journal.append(List.of(entry("a"))).get(0);
+            journal.complete(first.id(), true);
+            assertEquals(1, journal.stats().commits());
+
+            journal.append(List.of(entry("b")));
+            TransferJournal.Stats stats = journal.stats();
+            assertEquals(2, stats.commits());
+            assertEquals(3, stats.committedRecords());
+        }
+    }
+
+    @Test
+    void concurrentAppendsShareCommits() throws Exception {
+        Path file = dir.resolve("journal");
+        int threads = 16;
+        int perThread = 200;
+        Set<Long> ids = new HashSet<>();
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<List<TransferJournal.Entry>>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    futures.add(executor.submit(() -> {
+                        List<TransferJournal.Entry> added = new ArrayList<>();
+                        for (int i = 0; i < perThread; i++) {
+                            added.addAll(journal.append(List.of(entry(thread + "-" + i))));
+                        }
+                        return added;
+                    }));
+                }
+                for (Future<List<TransferJournal.Entry>> future : futures) {
+                    future.get().forEach(added -> ids.add(added.id()));
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            TransferJournal.Stats stats = journal.stats();
+            assertEquals(threads * perThread, ids.size());
+            assertEquals(threads * perThread, stats.committedRecords());
+            // Appends that arrive while a batch is being synced are committed together with the next one
+            assertTrue(stats.commits() < stats.committedRecords(), stats.toString());
+        }
+
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            assertEquals(threads * perThread, journal.unfinished().size());
+        }
+    }
+
+    @Test
+    void tornLastLineIsCutOff() throws IOException {
+        Path file = dir.resolve("journal");
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            journal.append(List.of(entry("a")));
+        }
+        Files.writeString(file, "+\t99\tUPLOAD\tNORMAL\t/local/torn\t/rem", StandardOpenOption.APPEND);
+
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            assertEquals(1, journal.unfinished().size());
+            assertEquals("/local/a", journal.unfinished().get(0).localPath());
+            journal.append(List.of(entry("b")));
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).endsWith("/remote/b"), lines.get(1));
+        try (TransferJournal journal = new TransferJournal(file, true)) {
+            assertEquals(2, journal.unfinished().size());
+        }
+    }
+
+    @Test
+    void compactsOnceFinishedRecordsDominate() throws IOException {
+        Path file = dir.resolve("journal");
+        List<TransferJournal.Entry> batch = new ArrayList<>();
+        for (int i = 0; i < 10_010; i++) {
+            batch.add(entry(String.valueOf(i)));
+        }
+        List<TransferJournal.Entry> kept;
+        long lastId;
+        try (TransferJournal journal = new TransferJournal(file, false)) {
+            List<TransferJournal.Entry> added = journal.append(batch);
+            kept = added.subList(0, 2);
+            lastId = added.get(added.size() - 1).id();
+            for (TransferJournal.Entry entry : added.subList(2, added.size())) {
+                journal.complete(entry.id(), true);
+            }
+            journal.flush();
+
+            TransferJournal.Stats stats = journal.stats();
+            assertEquals(1, stats.compactions());
+            assertEquals(3, stats.records());
+            assertEquals(2, stats.unfinished());
+        }
+
+        assertEquals(3, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+        try (TransferJournal journal = new TransferJournal(file, false)) {
+            assertEquals(kept, journal.unfinished());
+            assertEquals(lastId + 1, journal.append(List.of(entry("next"))).get(0).id());
+        }
+    }
+
+    @Test
+    void rejectsPathsThatWouldBreakTheRecordFormat() throws IOException {
+        try (TransferJournal journal = new TransferJournal(dir.resolve("journal"), true)) {
+            assertThrows(IllegalArgumentException.class, () -> journal.append(List.of(entry("tab\there"))));
+            assertThrows(IllegalArgumentException.class, () -> journal.append(List.of(entry("line\nbreak"))));
+            assertEquals(0, journal.stats().records());
+        }
+    }
+
+    private static TransferJournal.Entry entry(String name) {
+        return new TransferJournal.Entry(0, TransferMetrics.Direction.UPLOAD, BandwidthScheduler.Priority.NORMAL,
+                "/local/" + name, "/remote/" + name);
+    }
+}